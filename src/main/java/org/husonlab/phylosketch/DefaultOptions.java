@@ -33,6 +33,7 @@ import javafx.scene.text.Font;
 import jloda.fx.control.RichTextLabel;
 import jloda.fx.util.ProgramProperties;
 import jloda.fx.util.RunAfterAWhile;
+import org.husonlab.phylosketch.algorithms.embedding.EmbeddingStrategy;
 import org.husonlab.phylosketch.network.Document;
 import org.husonlab.phylosketch.network.NetworkModel;
 import org.husonlab.phylosketch.utils.Store;
@@ -64,6 +65,11 @@ public class DefaultOptions {
 	private final ObjectProperty<Color> reticulateColor = new SimpleObjectProperty<>(this, "reticulateColor");
 	private final DoubleProperty edgeWidth = new SimpleDoubleProperty(this, "edgeWidth");
 
+	private final IntegerProperty embeddingTimeBudget = new SimpleIntegerProperty(this, "embeddingTimeBudget");
+	private final ObjectProperty<EmbeddingStrategy> embeddingStrategy = new SimpleObjectProperty<>(this, "embeddingStrategy");
+	private final BooleanProperty embeddingWarmStart = new SimpleBooleanProperty(this, "embeddingWarmStart");
+	private final BooleanProperty cacheLayoutsOnDisk = new SimpleBooleanProperty(this, "cacheLayoutsOnDisk");
+
 	private final LongProperty update = new SimpleLongProperty(this, "update", 0L);
 
 	static private DefaultOptions instance;
@@ -92,10 +98,15 @@ public class DefaultOptions {
 			ProgramProperties.track(instance.reticulateColor, Color.DARKORANGE);
 			ProgramProperties.track(instance.edgeWidth, 1.0);
 
+			ProgramProperties.track(instance.embeddingTimeBudget, 10);
+			ProgramProperties.track(instance.embeddingStrategy, EmbeddingStrategy::valueOfNoFail, EmbeddingStrategy.Automatic);
+			ProgramProperties.track(instance.embeddingWarmStart, true);
+			ProgramProperties.track(instance.cacheLayoutsOnDisk, false);
+
 			// save properties after each change:
 			instance.update.bind(Bindings.createLongBinding(System::currentTimeMillis, getTrees(), labelFontFamilyProperty(), labelFontSizeProperty(),
 					nodeFillProperty(), nodeStrokeProperty(), nodeSizeProperty(), edgeGlyphProperty(), edgeColorProperty(), edgeWidthProperty(), reticulateColorProperty(),
-					swatchProperty()));
+					embeddingTimeBudgetProperty(), embeddingStrategyProperty(), embeddingWarmStartProperty(), cacheLayoutsOnDiskProperty(), swatchProperty()));
 			instance.update.addListener((v, o, n) -> RunAfterAWhile.apply(instance, DefaultOptions::store));
 		}
 		return instance;
@@ -117,6 +128,10 @@ public class DefaultOptions {
 		setEdgeColor(Color.BLACK);
 		setReticulateColor(Color.DARKORANGE);
 		setEdgeWidth(1.0);
+		setEmbeddingTimeBudget(10);
+		setEmbeddingStrategy(EmbeddingStrategy.Automatic);
+		setEmbeddingWarmStart(true);
+		setCacheLayoutsOnDisk(false);
 	}
 
 	public void addTree(String newick) {
@@ -261,6 +276,54 @@ public class DefaultOptions {
 		getInstance().edgeWidth.set(edgeWidth);
 	}
 
+	public static int getEmbeddingTimeBudget() {
+		return getInstance().embeddingTimeBudget.get();
+	}
+
+	public static IntegerProperty embeddingTimeBudgetProperty() {
+		return getInstance().embeddingTimeBudget;
+	}
+
+	public static void setEmbeddingTimeBudget(int seconds) {
+		getInstance().embeddingTimeBudget.set(seconds);
+	}
+
+	public static EmbeddingStrategy getEmbeddingStrategy() {
+		return getInstance().embeddingStrategy.get();
+	}
+
+	public static ObjectProperty<EmbeddingStrategy> embeddingStrategyProperty() {
+		return getInstance().embeddingStrategy;
+	}
+
+	public static void setEmbeddingStrategy(EmbeddingStrategy embeddingStrategy) {
+		getInstance().embeddingStrategy.set(embeddingStrategy);
+	}
+
+	public static boolean isEmbeddingWarmStart() {
+		return getInstance().embeddingWarmStart.get();
+	}
+
+	public static BooleanProperty embeddingWarmStartProperty() {
+		return getInstance().embeddingWarmStart;
+	}
+
+	public static void setEmbeddingWarmStart(boolean embeddingWarmStart) {
+		getInstance().embeddingWarmStart.set(embeddingWarmStart);
+	}
+
+	public static boolean isCacheLayoutsOnDisk() {
+		return getInstance().cacheLayoutsOnDisk.get();
+	}
+
+	public static BooleanProperty cacheLayoutsOnDiskProperty() {
+		return getInstance().cacheLayoutsOnDisk;
+	}
+
+	public static void setCacheLayoutsOnDisk(boolean cacheLayoutsOnDisk) {
+		getInstance().cacheLayoutsOnDisk.set(cacheLayoutsOnDisk);
+	}
+
 	private static File propertiesFile;
 
 	public static void load() {
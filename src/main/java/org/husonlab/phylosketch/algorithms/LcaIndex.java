@@ -0,0 +1,160 @@
+/*
+ * LcaIndex.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import jloda.graph.NodeIntArray;
+import jloda.phylo.PhyloTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * an index for constant-time lowest common ancestor queries in a rooted forest
+ * <p/>
+ * The index holds an Euler tour of each tree, which lists a node each time the tour enters it or returns to it from a child,
+ * and a sparse table over the depths along the tour. The lowest common ancestor of two nodes is the node of smallest depth
+ * between their first occurrences in the tour, found by two table lookups. Building takes O(n log n) time and space.
+ * The index is not updated when the forest changes.
+ */
+public class LcaIndex implements AutoCloseable {
+	private final NodeIntArray first; // first occurrence in the tour, plus one, so that 0 means not in the forest
+	private final NodeIntArray component; // the tree containing the node
+	private final Node[] tour;
+	private final int[] depth; // the depth of each node in the tour
+	private final int[][] sparse; // sparse[k][i] is the position of smallest depth in the tour between i and i+2^k-1
+
+	/**
+	 * constructor
+	 *
+	 * @param tree     the graph that contains the forest
+	 * @param roots    the roots of the trees of the forest
+	 * @param children provides the children of a node in the forest
+	 */
+	public LcaIndex(PhyloTree tree, Iterable<Node> roots, Function<Node, ? extends Iterable<Node>> children) {
+		first = tree.newNodeIntArray();
+		component = tree.newNodeIntArray();
+
+		var size = 2 * tree.getNumberOfNodes() + 1; // the tour of a forest of n nodes is shorter
+		var nodes = new Node[size];
+		var depths = new int[size];
+		var path = new Node[tree.getNumberOfNodes() + 1];
+		var iterators = new ArrayList<Iterator<Node>>();
+		var length = 0;
+		var count = 0;
+		for (var root : roots) {
+			count++;
+			var top = 0;
+			path[top] = root;
+			iterators.clear();
+			iterators.add(children.apply(root).iterator());
+			first.set(root, length + 1);
+			component.set(root, count);
+			nodes[length] = root;
+			depths[length++] = top;
+			while (top >= 0) {
+				var it = iterators.get(top);
+				if (it.hasNext()) {
+					var w = it.next();
+					path[++top] = w;
+					if (iterators.size() == top)
+						iterators.add(children.apply(w).iterator());
+					else
+						iterators.set(top, children.apply(w).iterator());
+					first.set(w, length + 1);
+					component.set(w, count);
+					nodes[length] = w;
+					depths[length++] = top;
+				} else if (--top >= 0) { // back at the parent
+					nodes[length] = path[top];
+					depths[length++] = top;
+				}
+			}
+		}
+		tour = Arrays.copyOf(nodes, length);
+		depth = Arrays.copyOf(depths, length);
+
+		var levels = 1;
+		while ((1 << levels) <= tour.length)
+			levels++;
+		sparse = new int[levels][];
+		sparse[0] = new int[tour.length];
+		for (var i = 0; i < tour.length; i++) {
+			sparse[0][i] = i;
+		}
+		for (var k = 1; k < levels; k++) {
+			var half = 1 << (k - 1);
+			var previous = sparse[k - 1];
+			var current = new int[tour.length - (1 << k) + 1];
+			for (var i = 0; i < current.length; i++) {
+				var a = previous[i];
+				var b = previous[i + half];
+				current[i] = (depth[a] <= depth[b] ? a : b);
+			}
+			sparse[k] = current;
+		}
+	}
+
+	/**
+	 * creates the index for the forest obtained from a network by removing all edges that lead to reticulations, that is,
+	 * the trees are rooted at the root of the network and at all reticulations
+	 */
+	public static LcaIndex forReticulationFreeForest(PhyloTree tree) {
+		return new LcaIndex(tree, () -> tree.nodeStream().filter(v -> v.getInDegree() != 1).iterator(),
+				v -> () -> v.outEdgesStream(false).map(Edge::getTarget).filter(w -> w.getInDegree() == 1).iterator());
+	}
+
+	/**
+	 * does the forest contain the given node?
+	 */
+	public boolean contains(Node v) {
+		return first.getInt(v) > 0;
+	}
+
+	/**
+	 * gets the lowest common ancestor of two nodes
+	 *
+	 * @return the lowest common ancestor, or null, if the two nodes do not lie in the same tree of the forest
+	 */
+	public Node getLCA(Node a, Node b) {
+		if (!contains(a) || !contains(b) || component.getInt(a) != component.getInt(b))
+			return null;
+		var i = first.getInt(a) - 1;
+		var j = first.getInt(b) - 1;
+		if (i > j) {
+			var tmp = i;
+			i = j;
+			j = tmp;
+		}
+		var k = 31 - Integer.numberOfLeadingZeros(j - i + 1);
+		var x = sparse[k][i];
+		var y = sparse[k][j - (1 << k) + 1];
+		return tour[depth[x] <= depth[y] ? x : y];
+	}
+
+	@Override
+	public void close() {
+		first.close();
+		component.close();
+	}
+}
@@ -21,16 +21,15 @@ package org.husonlab.phylosketch.algorithms;
 
 import javafx.geometry.Point2D;
 import jloda.fx.window.NotificationManager;
-import jloda.graph.Edge;
 import jloda.graph.Node;
 import jloda.graph.NodeArray;
+import jloda.graph.NodeSet;
 import jloda.phylo.PhyloTree;
 import jloda.phylo.algorithms.RootedNetworkProperties;
-import jloda.util.IteratorUtils;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -63,51 +62,24 @@ public class Normalize {
 			outputGraph.setLabel(t, inputGraph.getLabel(s));
 		}
 
-		final NodeArray<Collection<Node>> visibleAndLeavesBelow = inputGraph.newNodeArray();
+		var startReduction = System.currentTimeMillis();
 
-		computeAllBelowRec(sourceRoot.get(), visibleAndLeaves, visibleAndLeavesBelow);
+		final NodeArray<List<Node>> reducedChildren = inputGraph.newNodeArray();
+		computeReducedChildren(sourceRoot.get(), visibleAndLeaves, reducedChildren);
 
-		// create full graph:
+		// create the transitive reduction of the graph in which each visible node or leaf is connected to all below it:
 		for (var vs : visibleAndLeaves) {
 			var vt = src2tar.get(vs);
-			for (var ws : visibleAndLeavesBelow.get(vs)) {
-				var wt = src2tar.get(ws);
-				outputGraph.newEdge(vt, wt);
-			}
-		}
-
-		if (true) {
-			NodeArray<Set<Node>> parents = outputGraph.newNodeArray();
-			for (var v : outputGraph.nodes()) {
-				parents.put(v, IteratorUtils.asSet(v.parents()));
-			}
-
-			for (var e : outputGraph.edges()) {
-				for (var f : e.getTarget().inEdges()) {
-					if (f != e && parents.get(f.getSource()).contains(e.getSource())) {
-						outputGraph.deleteEdge(e);
-						break;
-					}
+			var children = reducedChildren.get(vs);
+			if (children != null) {
+				for (var ws : children) {
+					outputGraph.newEdge(vt, src2tar.get(ws));
 				}
 			}
-			//var edgesToDelete = target.edgeStream().filter(isReducible).collect(Collectors.toList());
-			//edgesToDelete.forEach(target::deleteEdge);
-		} else {
-			// transitive reduction:
-			var edgesToDelete = new HashSet<Edge>();
-			for (var x : outputGraph.nodes()) {
-				for (var z : x.children()) {
-					for (var y : x.children()) {
-						if (y.isChild(z)) {
-							edgesToDelete.add(x.getCommonEdge(z));
-							break;
-						}
-					}
-				}
-			}
-			edgesToDelete.forEach(outputGraph::deleteEdge);
 		}
 
+		var reductionTime = System.currentTimeMillis() - startReduction;
+
 		// remove digons:
 
 		var nodesToRemove = outputGraph.nodeStream().filter(v -> v.getInDegree() == 1 && v.getOutDegree() == 1).collect(Collectors.toSet());
@@ -128,28 +100,70 @@ public class Normalize {
 		var sourceReticulations = inputGraph.nodeStream().filter(v -> v.getInDegree() > 1).count();
 		var targetReticulations = outputGraph.nodeStream().filter(v -> v.getInDegree() > 1).count();
 
-		System.err.printf("Network with %,d nodes, %,d edges and %,d reticulations -> normalization with %,d nodes, %,d edges and %,d reticulations (time: %ds)%n",
+		System.err.printf("Network with %,d nodes, %,d edges and %,d reticulations -> normalization with %,d nodes, %,d edges and %,d reticulations (time: %ds, reduction: %,dms)%n",
 				inputGraph.getNumberOfNodes(), inputGraph.getNumberOfEdges(), sourceReticulations, outputGraph.getNumberOfNodes(), outputGraph.getNumberOfEdges(), targetReticulations,
-				((finish - start) / 1000));
+				((finish - start) / 1000), reductionTime);
 	}
 
 	/**
-	 * collect all visible nodes below a given node
+	 * for each visible node or leaf, computes the visible nodes and leaves directly below it, that is, the children in the
+	 * transitive reduction of the graph in which each visible node is connected to all visible nodes and leaves below it
+	 * <p/>
+	 * All nodes are processed once, in post-order, using bit sets over the visible nodes: the visible nodes below a node,
+	 * the candidates, which are reachable without passing through another visible node, and the visible nodes below the candidates.
+	 * The candidates that are not below some other candidate are the children in the reduction. The sets of a node are
+	 * released as soon as all its parents have been processed.
 	 *
-	 * @param v            the current node
-	 * @param visible      the set of all visible or leaf nodes
-	 * @param visibleBelow the mapping of v to all below
-	 * @return the set of all below v
+	 * @param root            the root node
+	 * @param visible         the set of all visible or leaf nodes
+	 * @param reducedChildren the mapping of each visible node or leaf to the visible nodes or leaves directly below it
 	 */
-	private static Set<Node> computeAllBelowRec(Node v, Set<Node> visible, NodeArray<Collection<Node>> visibleBelow) {
-		var set = new HashSet<Node>();
+	private static void computeReducedChildren(Node root, NodeSet visible, NodeArray<List<Node>> reducedChildren) {
+		var graph = root.getOwner();
+		var index2node = new Node[visible.size()];
+		try (var node2index = graph.newNodeIntArray(); var parentsDone = graph.newNodeIntArray(); var done = graph.newNodeSet();
+			 NodeArray<BitSet> below = graph.newNodeArray(); NodeArray<BitSet> candidates = graph.newNodeArray(); NodeArray<BitSet> belowCandidates = graph.newNodeArray()) {
+			var count = 0;
+			for (var v : visible) {
+				node2index.set(v, count);
+				index2node[count++] = v;
+			}
 
-		for (var w : v.children()) {
-			set.addAll(computeAllBelowRec(w, visible, visibleBelow));
-			if (visible.contains(w))
-				set.add(w);
+			Traversals.postOrder(root, Node::children, v -> !done.contains(v), v -> {
+				var belowV = new BitSet();
+				var candidatesV = new BitSet();
+				var belowCandidatesV = new BitSet();
+				for (var w : v.children()) {
+					if (visible.contains(w)) {
+						belowV.set(node2index.getInt(w));
+						belowV.or(below.get(w));
+						candidatesV.set(node2index.getInt(w));
+						belowCandidatesV.or(below.get(w));
+					} else {
+						belowV.or(below.get(w));
+						candidatesV.or(candidates.get(w));
+						belowCandidatesV.or(belowCandidates.get(w));
+					}
+					parentsDone.set(w, parentsDone.getInt(w) + 1);
+					if (parentsDone.getInt(w) == w.getInDegree()) {
+						below.put(w, null);
+						candidates.put(w, null);
+						belowCandidates.put(w, null);
+					}
+				}
+				below.put(v, belowV);
+				if (visible.contains(v)) {
+					candidatesV.andNot(belowCandidatesV);
+					var children = new ArrayList<Node>(candidatesV.cardinality());
+					for (var i = candidatesV.nextSetBit(0); i != -1; i = candidatesV.nextSetBit(i + 1))
+						children.add(index2node[i]);
+					reducedChildren.put(v, children);
+				} else {
+					candidates.put(v, candidatesV);
+					belowCandidates.put(v, belowCandidatesV);
+				}
+				done.add(v);
+			});
 		}
-		visibleBelow.put(v, set);
-		return set;
 	}
 }
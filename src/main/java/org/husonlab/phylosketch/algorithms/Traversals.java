@@ -0,0 +1,161 @@
+/*
+ * Traversals.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms;
+
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * depth-first traversals of rooted trees and networks that use an explicit stack, so that deep inputs do not overflow the call stack
+ * <p/>
+ * The traversals behave like the corresponding recursive methods: children are visited in the order given, and whether to enter
+ * a node is decided just before it is entered, after all previous siblings have been completely processed. A node that is
+ * reachable along several paths is entered once per path, unless the enter predicate prevents this, for example by
+ * testing whether the node has already been processed.
+ */
+public class Traversals {
+	/**
+	 * visits all nodes below and including the root in pre-order
+	 *
+	 * @param children provides the children of a node
+	 * @param visitor  called for each node before its children are visited
+	 */
+	public static void preOrder(Node root, Function<Node, ? extends Iterable<Node>> children, Consumer<Node> visitor) {
+		traverse(root, children, v -> true, visitor, null);
+	}
+
+	/**
+	 * visits all nodes below and including the root in pre-order
+	 *
+	 * @param children provides the children of a node
+	 * @param enter    determines whether to enter a node, if false, the node and its descendants are not visited on this path
+	 * @param visitor  called for each node before its children are visited
+	 */
+	public static void preOrder(Node root, Function<Node, ? extends Iterable<Node>> children, Predicate<Node> enter, Consumer<Node> visitor) {
+		traverse(root, children, enter, visitor, null);
+	}
+
+	/**
+	 * visits all nodes below and including the root in post-order
+	 *
+	 * @param children provides the children of a node
+	 * @param visitor  called for each node after all its children have been visited
+	 */
+	public static void postOrder(Node root, Function<Node, ? extends Iterable<Node>> children, Consumer<Node> visitor) {
+		traverse(root, children, v -> true, null, visitor);
+	}
+
+	/**
+	 * visits all nodes below and including the root in post-order
+	 *
+	 * @param children provides the children of a node
+	 * @param enter    determines whether to enter a node, if false, the node and its descendants are not visited on this path
+	 * @param visitor  called for each node after all its children have been visited
+	 */
+	public static void postOrder(Node root, Function<Node, ? extends Iterable<Node>> children, Predicate<Node> enter, Consumer<Node> visitor) {
+		traverse(root, children, enter, null, visitor);
+	}
+
+	/**
+	 * visits all nodes below and including v in the LSA tree in pre-order
+	 */
+	public static void preOrderLSA(PhyloTree tree, Node v, Consumer<Node> visitor) {
+		traverse(v, w -> lsaChildren(tree, w), w -> true, visitor, null);
+	}
+
+	/**
+	 * visits all nodes below and including v in the LSA tree in post-order
+	 */
+	public static void postOrderLSA(PhyloTree tree, Node v, Consumer<Node> visitor) {
+		traverse(v, w -> lsaChildren(tree, w), w -> true, null, visitor);
+	}
+
+	/**
+	 * visits all leaves below and including v in the order given by the LSA tree
+	 */
+	public static void leavesInLSAOrder(PhyloTree tree, Node v, Consumer<Node> visitor) {
+		traverse(v, w -> lsaChildren(tree, w), w -> true, w -> {
+			if (w.isLeaf())
+				visitor.accept(w);
+		}, null);
+	}
+
+	/**
+	 * the children of a node in the LSA tree, leaves have none
+	 */
+	public static Iterable<Node> lsaChildren(PhyloTree tree, Node v) {
+		if (v.isLeaf())
+			return Collections.emptyList();
+		var list = tree.getLSAChildrenMap().get(v);
+		return (list != null ? list : Collections.emptyList());
+	}
+
+	/**
+	 * the core traversal
+	 *
+	 * @param preVisitor  called when a node is entered, may be null
+	 * @param postVisitor called when a node is left, may be null
+	 */
+	@SuppressWarnings("unchecked")
+	public static void traverse(Node root, Function<Node, ? extends Iterable<Node>> children, Predicate<Node> enter, Consumer<Node> preVisitor, Consumer<Node> postVisitor) {
+		if (!enter.test(root))
+			return;
+
+		var nodes = new Node[64];
+		var iterators = (Iterator<Node>[]) new Iterator[64];
+		var top = 0;
+
+		nodes[0] = root;
+		if (preVisitor != null)
+			preVisitor.accept(root);
+		iterators[0] = children.apply(root).iterator();
+
+		while (top >= 0) {
+			var it = iterators[top];
+			if (it.hasNext()) {
+				var w = it.next();
+				if (enter.test(w)) {
+					if (++top == nodes.length) {
+						nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+						iterators = Arrays.copyOf(iterators, 2 * iterators.length);
+					}
+					nodes[top] = w;
+					if (preVisitor != null)
+						preVisitor.accept(w);
+					iterators[top] = children.apply(w).iterator();
+				}
+			} else {
+				var v = nodes[top];
+				nodes[top] = null;
+				iterators[top] = null;
+				top--;
+				if (postVisitor != null)
+					postVisitor.accept(v);
+			}
+		}
+	}
+}
@@ -0,0 +1,529 @@
+/*
+ * BranchAndBoundOptimizer.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.phylo.PhyloTree;
+import jloda.util.progress.ProgressListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * computes an embedding of a network with few reticulations that minimizes the total displacement of the reticulate edges,
+ * see {@link ReticulateDisplacement}
+ * <p/>
+ * The displacement of a reticulate edge only depends on the order of LSA children of the nodes on the path between its two
+ * ends in the LSA tree, excluding the two ends. These decision nodes are processed in pre-order, placing their LSA children
+ * one at a time. Children that contain no end of a reticulate edge are idle: consecutive idle children are placed in order of
+ * size, and idle children of the same size are interchangeable. Once a child is placed, the interval of leaves below it is
+ * known, which gives a lower bound on the displacement of all edges that is used for pruning.
+ * The search is split into tasks that are run on the common fork-join pool, using work stealing, and the best embedding found
+ * so far is shared by compare-and-set. Of all optimal embeddings, the one whose sequence of choices is lexicographically smallest
+ * is reported, so that the result does not depend on the scheduling of the tasks. If the time budget is used up, the search stops
+ * and the best embedding found so far is used. Optionally, each embedding found that has a lower score than all before is
+ * applied to the tree as soon as it is found, so that it can be shown while the search continues.
+ */
+public class BranchAndBoundOptimizer {
+	public static final int MAX_RETICULATIONS = 15;
+
+	private static final int FORK_TASKS = 256; // the search is split until there are about this many tasks
+
+	private final ReticulateDisplacement displacement;
+	private final PhyloTree tree;
+	private final Runnable onImproved;
+	private final int[] decisions; // the decision nodes, in pre-order
+	private final int[][] idleRank; // for each decision node and each child, its rank by size among the idle children, or -1, if busy
+	private final int[][] previousOfSameSize; // for each decision node and each child, the previous idle child of the same size, or -1
+
+	private final int[] endpoints; // the ends of all reticulate edges
+	private final int[] endpointIndex; // maps a node to its index in endpoints
+	private final int[][] pathDecisions; // for each end, the indices of all decision nodes above it, from the top
+	private final int[][] pathChildren; // for each end and each decision node above it, the child on the path to the end
+	private final int[][] pathOffsets; // for each end and each decision node above it, the rank of its first leaf, given zero offsets at decision nodes
+	private final int[] offsets; // for each end, the rank of its first leaf, given zero offsets at decision nodes
+
+	private final AtomicReference<Result> best = new AtomicReference<>();
+	private volatile boolean stopped = false;
+	private long appliedScore; // the score of the embedding last applied to the tree, guarded by this
+
+	private BranchAndBoundOptimizer(ReticulateDisplacement displacement, PhyloTree tree, Runnable onImproved) {
+		this.displacement = displacement;
+		this.tree = tree;
+		this.onImproved = onImproved;
+
+		var nodes = displacement.nodes.length;
+		var parent = computeParents(displacement);
+		decisions = computeDecisions(displacement, parent);
+		var decisionIndex = new int[nodes];
+		Arrays.fill(decisionIndex, -1);
+		for (var d = 0; d < decisions.length; d++) {
+			decisionIndex[decisions[d]] = d;
+		}
+
+		idleRank = new int[decisions.length][];
+		previousOfSameSize = new int[decisions.length][];
+		for (var d = 0; d < decisions.length; d++) {
+			var children = displacement.children[decisions[d]];
+			idleRank[d] = new int[children.length];
+			previousOfSameSize[d] = new int[children.length];
+			var idle = new ArrayList<Integer>();
+			for (var i = 0; i < children.length; i++) {
+				idleRank[d][i] = -1;
+				previousOfSameSize[d][i] = -1;
+				if (!containsEndpoint(displacement, children[i]))
+					idle.add(i);
+			}
+			idle.sort((a, b) -> Integer.compare(displacement.leaves[children[a]], displacement.leaves[children[b]]));
+			for (var r = 0; r < idle.size(); r++) {
+				idleRank[d][idle.get(r)] = r;
+				if (r > 0 && displacement.leaves[children[idle.get(r)]] == displacement.leaves[children[idle.get(r - 1)]])
+					previousOfSameSize[d][idle.get(r)] = idle.get(r - 1);
+			}
+		}
+
+		endpointIndex = new int[nodes];
+		Arrays.fill(endpointIndex, -1);
+		var list = new ArrayList<Integer>();
+		for (var k = 0; k < displacement.reticulateSources.length; k++) {
+			for (var s : new int[]{displacement.reticulateSources[k], displacement.reticulateTargets[k]}) {
+				if (endpointIndex[s] == -1) {
+					endpointIndex[s] = list.size();
+					list.add(s);
+				}
+			}
+		}
+		endpoints = list.stream().mapToInt(Integer::intValue).toArray();
+
+		pathDecisions = new int[endpoints.length][];
+		pathChildren = new int[endpoints.length][];
+		pathOffsets = new int[endpoints.length][];
+		offsets = new int[endpoints.length];
+		for (var i = 0; i < endpoints.length; i++) {
+			var path = new ArrayList<Integer>();
+			for (var x = endpoints[i]; x != -1; x = parent[x]) {
+				path.add(0, x);
+			}
+			var dList = new ArrayList<Integer>();
+			var cList = new ArrayList<Integer>();
+			var oList = new ArrayList<Integer>();
+			var offset = 0;
+			for (var j = 0; j + 1 < path.size(); j++) {
+				var p = path.get(j);
+				var c = path.get(j + 1);
+				if (decisionIndex[p] != -1) {
+					dList.add(decisionIndex[p]);
+					cList.add(c);
+					oList.add(offset);
+				} else {
+					for (var w : displacement.children[p]) {
+						if (w == c)
+							break;
+						offset += displacement.leaves[w];
+					}
+				}
+			}
+			pathDecisions[i] = dList.stream().mapToInt(Integer::intValue).toArray();
+			pathChildren[i] = cList.stream().mapToInt(Integer::intValue).toArray();
+			pathOffsets[i] = oList.stream().mapToInt(Integer::intValue).toArray();
+			offsets[i] = offset;
+		}
+	}
+
+	/**
+	 * determines whether the network has few enough reticulations for an exact search
+	 */
+	public static boolean isApplicable(PhyloTree tree) {
+		return tree.getRoot() != null && tree.nodeStream().filter(v -> v.getInDegree() > 1).count() <= MAX_RETICULATIONS;
+	}
+
+	/**
+	 * computes an embedding that minimizes the total displacement of the reticulate edges. If a better embedding than the
+	 * current one is found, the LSA children and the out-edges of all nodes are reordered accordingly
+	 *
+	 * @param tree     the network, with LSA children map set up
+	 * @param progress allows the user to cancel, in which case the best embedding found so far is used
+	 * @param budget   the time budget, once used up, the search stops and the best embedding found so far is used
+	 * @return false, if the network has too many reticulations for an exact search
+	 */
+	public static boolean apply(PhyloTree tree, ProgressListener progress, EmbeddingBudget budget) {
+		return apply(tree, progress, budget, null);
+	}
+
+	/**
+	 * computes an embedding that minimizes the total displacement of the reticulate edges. Each embedding found that is better
+	 * than all before is applied to the tree right away, after which onImproved is run
+	 *
+	 * @param tree       the network, with LSA children map set up
+	 * @param progress   allows the user to cancel, in which case the best embedding found so far is used
+	 * @param budget     the time budget, once used up, the search stops and the best embedding found so far is used
+	 * @param onImproved run on a worker thread of the search, once a better embedding has been applied to the tree, may be null
+	 * @return false, if the network has too many reticulations for an exact search
+	 */
+	public static boolean apply(PhyloTree tree, ProgressListener progress, EmbeddingBudget budget, Runnable onImproved) {
+		if (!isApplicable(tree))
+			return false;
+		if (tree.getNumberReticulateEdges() == 0)
+			return true;
+
+		progress.setSubtask("branch and bound");
+		var displacement = new ReticulateDisplacement(tree);
+		var optimizer = new BranchAndBoundOptimizer(displacement, tree, onImproved);
+		var initialScore = displacement.displacement(displacement.children);
+		optimizer.best.set(new Result(initialScore, null, null));
+		optimizer.appliedScore = initialScore;
+
+		var state = new State(displacement.nodes.length, Arrays.stream(optimizer.decisions).map(v -> displacement.children[v].length).sum());
+		if (optimizer.decisions.length > 0)
+			state.begin(optimizer.decisions[0], displacement.children[optimizer.decisions[0]].length);
+		optimizer.new Search(state, 1L, progress, budget).invoke();
+
+		var result = optimizer.best.get();
+		System.err.println("Branch and bound reticulate displacement: " + initialScore + " -> " + result.score
+						   + (optimizer.stopped ? " (time budget exceeded)" : " (optimal)"));
+		if (result.order != null)
+			displacement.apply(tree, result.order);
+		return true;
+	}
+
+	/**
+	 * applies an embedding found by the search to the tree, if it is still the best one and has a lower score than the one
+	 * last applied
+	 */
+	private synchronized void applyImproved(Result result) {
+		if (result.score < appliedScore && best.get() == result) {
+			appliedScore = result.score;
+			displacement.apply(tree, result.order);
+			onImproved.run();
+		}
+	}
+
+	/**
+	 * the search below a given partial embedding
+	 */
+	private class Search extends RecursiveAction {
+		private final State state;
+		private final long breadth;
+		private final ProgressListener progress;
+		private final EmbeddingBudget budget;
+		private int visits = 0;
+
+		/**
+		 * constructor
+		 *
+		 * @param state   the partial embedding
+		 * @param breadth the number of tasks that have been created at the level of this one
+		 */
+		Search(State state, long breadth, ProgressListener progress, EmbeddingBudget budget) {
+			this.state = state;
+			this.breadth = breadth;
+			this.progress = progress;
+			this.budget = budget;
+		}
+
+		@Override
+		protected void compute() {
+			if (stopped)
+				return;
+			if (state.depth < decisions.length && breadth < FORK_TASKS) {
+				var children = displacement.children[decisions[state.depth]];
+				var next = new ArrayList<State>();
+				for (var i = 0; i < children.length; i++) {
+					if (canPlace(state, i)) {
+						var copy = state.copy();
+						if (place(copy, i))
+							next.add(copy);
+					}
+				}
+				var tasks = new ArrayList<Search>(next.size());
+				for (var copy : next) {
+					tasks.add(new Search(copy, breadth * Math.max(1, next.size()), progress, budget));
+				}
+				ForkJoinTask.invokeAll(tasks);
+			} else
+				search();
+		}
+
+		/**
+		 * depth-first search
+		 */
+		private void search() {
+			if (state.depth == decisions.length) {
+				var score = lowerBound(state); // all decided, so the bound is the score
+				if (isBetter(score, state, best.get(), false)) {
+					var order = ReticulateDisplacement.copy(displacement.children, null);
+					for (var v : decisions) {
+						order[v] = state.order[v].clone();
+					}
+					var result = new Result(score, order, state.choices.clone());
+					if (best.accumulateAndGet(result, (a, b) -> (isBetter(b.score, b.choices, b.choices.length, a, false) ? b : a)) == result && onImproved != null)
+						applyImproved(result);
+				}
+				return;
+			}
+			var children = displacement.children[decisions[state.depth]];
+			for (var i = 0; i < children.length && !stopped; i++) {
+				if ((++visits & 1023) == 0 && ReticulateDisplacement.mustStop(progress, budget))
+					stopped = true;
+				else if (canPlace(state, i)) {
+					var depth = state.depth;
+					var placed = state.placed;
+					var placedLeaves = state.placedLeaves;
+					var previousIdleRank = state.previousIdleRank;
+					var used = state.used;
+					var chosen = state.chosen;
+					if (place(state, i))
+						search();
+					// undo the placement:
+					state.depth = depth;
+					state.placed = placed;
+					state.placedLeaves = placedLeaves;
+					state.previousIdleRank = previousIdleRank;
+					state.used = used;
+					state.chosen = chosen;
+					state.used[i] = false;
+					state.firstLeafOffsets[children[i]] = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * can the i-th child of the current decision node be placed next? Idle children of the same size are placed in order
+	 * of rank, and consecutive idle children are placed in order of rank, as other orders give the same displacement
+	 */
+	private boolean canPlace(State state, int i) {
+		var d = state.depth;
+		if (state.used[i])
+			return false;
+		if (idleRank[d][i] != -1) {
+			if (previousOfSameSize[d][i] != -1 && !state.used[previousOfSameSize[d][i]])
+				return false;
+			return state.previousIdleRank < idleRank[d][i];
+		}
+		return true;
+	}
+
+	/**
+	 * places the i-th child of the current decision node in the next position and moves to the next decision node, once all
+	 * children have been placed
+	 *
+	 * @return true, if the partial embedding may lead to a better embedding than the best one found so far
+	 */
+	private boolean place(State state, int i) {
+		var v = decisions[state.depth];
+		var w = displacement.children[v][i];
+		state.order[v][state.placed] = w;
+		state.choices[state.chosen++] = i;
+		state.firstLeafOffsets[w] = state.placedLeaves;
+		state.used[i] = true;
+		state.placed++;
+		state.placedLeaves += displacement.leaves[w];
+		state.previousIdleRank = idleRank[state.depth][i];
+
+		if (state.placed == displacement.children[v].length) {
+			state.depth++;
+			if (state.depth < decisions.length)
+				state.begin(decisions[state.depth], displacement.children[decisions[state.depth]].length);
+		}
+		return isBetter(lowerBound(state), state, best.get(), true);
+	}
+
+	/**
+	 * determines whether a (partial) embedding is better than the given result, that is, has a lower score or the same score
+	 * and a lexicographically smaller sequence of choices. Ties are broken this way, so that the result is deterministic
+	 *
+	 * @param score   the score, or the lower bound on the score of a partial embedding
+	 * @param partial if true, a partial embedding whose choices so far equal those of the result may still lead to a better one
+	 */
+	private static boolean isBetter(long score, State state, Result result, boolean partial) {
+		return isBetter(score, state.choices, state.chosen, result, partial);
+	}
+
+	private static boolean isBetter(long score, int[] choices, int length, Result result, boolean partial) {
+		if (score != result.score)
+			return score < result.score;
+		if (result.choices == null)
+			return false; // the initial embedding is only replaced by a better one
+		var compare = Arrays.compare(choices, 0, length, result.choices, 0, length);
+		return compare < 0 || (partial && compare == 0);
+	}
+
+	/**
+	 * computes a lower bound on the total displacement of the partial embedding. If all decision nodes have been decided,
+	 * then this is the displacement
+	 */
+	private long lowerBound(State state) {
+		var sum = 0L;
+		var range = new int[2];
+		var other = new int[2];
+		for (var k = 0; k < displacement.reticulateSources.length; k++) {
+			computeRange(state, endpointIndex[displacement.reticulateSources[k]], range);
+			computeRange(state, endpointIndex[displacement.reticulateTargets[k]], other);
+			sum += Math.max(0, Math.max(other[0] - range[1], range[0] - other[1]));
+		}
+		return sum;
+	}
+
+	/**
+	 * computes the range of the doubled position of an end of a reticulate edge in the partial embedding
+	 */
+	private void computeRange(State state, int i, int[] range) {
+		var leaves = displacement.leaves[endpoints[i]];
+		var first = 0;
+		for (var j = 0; j < pathDecisions[i].length; j++) {
+			var d = pathDecisions[i][j];
+			if (d > state.depth || (d == state.depth && !state.isPlaced(pathChildren[i][j]))) {
+				// the end lies somewhere below the unplaced children of this decision node
+				var above = decisions[d];
+				var from = pathOffsets[i][j] + first + (d == state.depth ? state.placedLeaves : 0);
+				var to = pathOffsets[i][j] + first + displacement.leaves[above] - 1;
+				range[0] = 2 * from + leaves - 1;
+				range[1] = 2 * to - leaves + 1;
+				return;
+			}
+			first += state.firstLeafOffsets[pathChildren[i][j]];
+		}
+		first += offsets[i];
+		range[0] = range[1] = 2 * first + leaves - 1;
+	}
+
+	/**
+	 * the decision nodes, that is, the nodes with more than one LSA child that lie on the path between the two ends of
+	 * some reticulate edge, excluding the ends
+	 */
+	private static int[] computeDecisions(ReticulateDisplacement displacement, int[] parent) {
+		var isDecision = new boolean[displacement.nodes.length];
+		for (var k = 0; k < displacement.reticulateSources.length; k++) {
+			var s = displacement.reticulateSources[k];
+			var t = displacement.reticulateTargets[k];
+			var lca = s;
+			while (!isBelow(displacement, t, lca))
+				lca = parent[lca];
+			for (var end : new int[]{s, t}) {
+				for (var x = end; x != lca; ) {
+					x = parent[x];
+					isDecision[x] = true;
+				}
+			}
+		}
+		var list = new ArrayList<Integer>();
+		for (var i = 0; i < displacement.nodes.length; i++) {
+			if (isDecision[i] && displacement.children[i].length >= 2)
+				list.add(i);
+		}
+		return list.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static boolean containsEndpoint(ReticulateDisplacement displacement, int v) {
+		for (var x = v; x < v + displacement.size[v]; x++) {
+			if (displacement.reticulateEdges[x].length > 0)
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isBelow(ReticulateDisplacement displacement, int x, int v) {
+		return x >= v && x < v + displacement.size[v];
+	}
+
+	private static int[] computeParents(ReticulateDisplacement displacement) {
+		var parent = new int[displacement.nodes.length];
+		Arrays.fill(parent, -1);
+		for (var v = 0; v < parent.length; v++) {
+			for (var w : displacement.children[v]) {
+				parent[w] = v;
+			}
+		}
+		return parent;
+	}
+
+	/**
+	 * a partial embedding, in which the LSA children of all decision nodes before the current one have been ordered and
+	 * some children of the current one have been placed
+	 */
+	private static final class State {
+		private int depth; // the index of the current decision node
+		private int placed; // the number of children of the current decision node placed so far
+		private int placedLeaves; // the number of leaves below these children
+		private int previousIdleRank = -1; // the idle rank of the last child placed, or -1
+		private boolean[] used; // for each child of the current decision node, whether it has been placed
+		private final int[][] order; // the order of LSA children of decision nodes
+		private final int[] firstLeafOffsets; // for each placed child, the number of leaves below its siblings to the left, or -1
+		private final int[] choices; // the indices of the children placed so far, in the order of placement
+		private int chosen; // the number of children placed so far, over all decision nodes
+
+		private State(int nodes, int totalChoices) {
+			order = new int[nodes][];
+			choices = new int[totalChoices];
+			firstLeafOffsets = new int[nodes];
+			Arrays.fill(firstLeafOffsets, -1);
+		}
+
+		/**
+		 * starts placing the children of the next decision node
+		 */
+		private void begin(int v, int children) {
+			placed = 0;
+			placedLeaves = 0;
+			previousIdleRank = -1;
+			used = new boolean[children];
+			order[v] = new int[children];
+		}
+
+		private boolean isPlaced(int w) {
+			return firstLeafOffsets[w] != -1;
+		}
+
+		private State copy() {
+			var copy = new State(order.length, choices.length);
+			copy.chosen = chosen;
+			System.arraycopy(choices, 0, copy.choices, 0, chosen);
+			copy.depth = depth;
+			copy.placed = placed;
+			copy.placedLeaves = placedLeaves;
+			copy.previousIdleRank = previousIdleRank;
+			copy.used = used.clone();
+			System.arraycopy(firstLeafOffsets, 0, copy.firstLeafOffsets, 0, firstLeafOffsets.length);
+			for (var v = 0; v < order.length; v++) {
+				if (order[v] != null)
+					copy.order[v] = order[v].clone();
+			}
+			return copy;
+		}
+	}
+
+	/**
+	 * the best embedding found so far
+	 */
+	private static final class Result {
+		private final long score;
+		private final int[][] order;
+		private final int[] choices; // the indices of the children placed, in the order of placement, or null for the initial embedding
+
+		private Result(long score, int[][] order, int[] choices) {
+			this.score = score;
+			this.order = order;
+			this.choices = choices;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * CanonicalTopology.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import jloda.graph.NodeArray;
+import jloda.phylo.PhyloTree;
+import org.husonlab.phylosketch.algorithms.Traversals;
+
+import java.util.*;
+
+/**
+ * a numbering of the nodes and edges of a rooted network that depends only on the labels and the structure of the network,
+ * not on node or edge ids or the order of children
+ * <p/>
+ * Each node gets a hash computed from its label, its in-degree and the hashes of its children. Nodes are numbered in pre-order,
+ * visiting the children of a node in the order of their hashes. Children of the same hash, such as two unlabeled leaves, are
+ * visited in their current order. Usually, these are identical subtrees, for which the order doesn't matter, otherwise
+ * isSame() reports the difference. A network that has nodes that are not below the root has no canonical numbering.
+ */
+public class CanonicalTopology {
+	private final long hash;
+	private final Node[] nodes;
+	private final Edge[] edges;
+	private final Map<Node, Integer> nodeIndex;
+	private final Map<Edge, Integer> edgeIndex;
+	private final int[] edgeNodes;
+	private final String[] labels;
+	private final double[] weights;
+
+	private CanonicalTopology(long hash, Node[] nodes, Edge[] edges, Map<Node, Integer> nodeIndex, Map<Edge, Integer> edgeIndex, int[] edgeNodes, String[] labels, double[] weights) {
+		this.hash = hash;
+		this.nodes = nodes;
+		this.edges = edges;
+		this.nodeIndex = nodeIndex;
+		this.edgeIndex = edgeIndex;
+		this.edgeNodes = edgeNodes;
+		this.labels = labels;
+		this.weights = weights;
+	}
+
+	/**
+	 * computes the canonical numbering of a rooted network
+	 *
+	 * @param tree    the network
+	 * @param toScale if true, edge weights are part of the topology
+	 * @return the canonical numbering, or null, if the network has none
+	 */
+	public static CanonicalTopology compute(PhyloTree tree, boolean toScale) {
+		var root = tree.getRoot();
+		if (root == null || root.getOwner() != tree)
+			return null;
+
+		try (NodeArray<Long> nodeHash = tree.newNodeArray();
+			 NodeArray<Edge[]> sortedOutEdges = tree.newNodeArray()) {
+			Traversals.postOrder(root, Node::children, w -> !nodeHash.containsKey(w), v -> {
+				var outEdges = new ArrayList<Edge>(v.getOutDegree());
+				var keys = new HashMap<Edge, Long>();
+				for (var e : v.outEdges()) {
+					outEdges.add(e);
+					keys.put(e, edgeKey(tree, e, nodeHash.get(e.getTarget()), toScale));
+				}
+				outEdges.sort(Comparator.comparing(keys::get)); // stable, so children of the same hash keep their order
+				var label = tree.getLabel(v);
+				var h = mix(label != null ? label.hashCode() : 0);
+				h = mix(h ^ v.getInDegree());
+				for (var e : outEdges) {
+					h = mix(31 * h + keys.get(e));
+				}
+				nodeHash.put(v, h);
+				sortedOutEdges.put(v, outEdges.toArray(new Edge[0]));
+			});
+			var nodes = new ArrayList<Node>(tree.getNumberOfNodes());
+			var nodeIndex = new HashMap<Node, Integer>();
+			Traversals.preOrder(root, v -> () -> Arrays.stream(sortedOutEdges.get(v)).map(Edge::getTarget).iterator(), w -> !nodeIndex.containsKey(w), v -> {
+				nodeIndex.put(v, nodes.size());
+				nodes.add(v);
+			});
+			if (nodes.size() != tree.getNumberOfNodes())
+				return null;
+
+			var edges = new ArrayList<Edge>(tree.getNumberOfEdges());
+			var edgeIndex = new HashMap<Edge, Integer>();
+			for (var v : nodes) {
+				for (var e : sortedOutEdges.get(v)) {
+					edgeIndex.put(e, edges.size());
+					edges.add(e);
+				}
+			}
+			if (edges.size() != tree.getNumberOfEdges())
+				return null;
+
+			var edgeNodes = new int[2 * edges.size()];
+			var weights = (toScale ? new double[edges.size()] : null);
+			for (var i = 0; i < edges.size(); i++) {
+				var e = edges.get(i);
+				edgeNodes[2 * i] = nodeIndex.get(e.getSource());
+				edgeNodes[2 * i + 1] = nodeIndex.get(e.getTarget());
+				if (weights != null)
+					weights[i] = tree.getWeight(e);
+			}
+			var labels = new String[nodes.size()];
+			for (var i = 0; i < nodes.size(); i++) {
+				labels[i] = tree.getLabel(nodes.get(i));
+			}
+			var hash = mix(mix(nodeHash.get(root) ^ (toScale ? 1 : 0)) + 31L * nodes.size() + edges.size());
+			return new CanonicalTopology(hash, nodes.toArray(new Node[0]), edges.toArray(new Edge[0]), nodeIndex, edgeIndex, edgeNodes, labels, weights);
+		}
+	}
+
+	private static long edgeKey(PhyloTree tree, Edge e, long targetHash, boolean toScale) {
+		if (toScale)
+			return mix(targetHash ^ Double.doubleToLongBits(tree.getWeight(e)));
+		else
+			return targetHash;
+	}
+
+	/**
+	 * mixes the bits of a 64-bit value (the finalizer of SplitMix64)
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * the hash of the topology. Networks that have the same topology have the same hash
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+
+	public int getNumberOfEdges() {
+		return edges.length;
+	}
+
+	public Node getNode(int index) {
+		return nodes[index];
+	}
+
+	public Edge getEdge(int index) {
+		return edges[index];
+	}
+
+	public int getIndex(Node v) {
+		return nodeIndex.get(v);
+	}
+
+	public int getIndex(Edge e) {
+		return edgeIndex.get(e);
+	}
+
+	/**
+	 * the source and target numbers of all edges, in the order of the edges
+	 */
+	public int[] getEdgeNodes() {
+		return edgeNodes;
+	}
+
+	/**
+	 * the labels of all nodes, in the order of the nodes
+	 */
+	public String[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * the weights of all edges, in the order of the edges, or null, if weights are not part of the topology
+	 */
+	public double[] getWeights() {
+		return weights;
+	}
+
+	/**
+	 * determines whether this topology equals the one given by the arrays, so that node and edge numbers correspond
+	 */
+	public boolean isSame(long hash, int[] edgeNodes, String[] labels, double[] weights) {
+		return this.hash == hash && Arrays.equals(this.edgeNodes, edgeNodes) && Arrays.equals(this.labels, labels) && Arrays.equals(this.weights, weights);
+	}
+}
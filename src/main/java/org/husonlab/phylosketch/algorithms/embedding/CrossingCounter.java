@@ -0,0 +1,270 @@
+/*
+ * CrossingCounter.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * counts the crossings between two orderings of taxa in O(n log n) time
+ * <p/>
+ * The reference ordering is mapped to ranks once, after which any number of orderings can be scored against it.
+ * Taxa that are not contained in the reference ordering are ignored, as in {@link OptimizeUtils#computeCrossingNum(List, List)}.
+ * A counter is either label-based or id-based, depending on the constructor used.
+ */
+public class CrossingCounter implements CrossingScorer {
+	private final Map<String, Integer> rank;
+	private final int[] rankById;
+
+	/**
+	 * constructor
+	 *
+	 * @param reference the ordering against which crossings are counted
+	 */
+	public CrossingCounter(List<String> reference) {
+		rank = new HashMap<>();
+		rankById = null;
+		var i = 0;
+		for (var taxon : reference)
+			rank.put(taxon, i++);
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param reference the ordering of taxon ids against which crossings are counted
+	 */
+	public CrossingCounter(TaxonOrdering reference) {
+		rank = null;
+		var maxId = 0;
+		for (var i = 0; i < reference.size(); i++)
+			maxId = Math.max(maxId, reference.get(i));
+		rankById = new int[maxId + 1];
+		Arrays.fill(rankById, -1);
+		for (var i = 0; i < reference.size(); i++)
+			rankById[reference.get(i)] = i;
+	}
+
+	/**
+	 * gets the rank of a taxon in the reference ordering
+	 *
+	 * @return rank or -1, if not contained
+	 */
+	public int getRank(String taxon) {
+		var r = rank.get(taxon);
+		return r != null ? r : -1;
+	}
+
+	/**
+	 * gets the rank of a taxon id in the reference ordering
+	 *
+	 * @return rank or -1, if not contained
+	 */
+	public int getRank(int id) {
+		return (id >= 0 && id < rankById.length ? rankById[id] : -1);
+	}
+
+	/**
+	 * maps the given ordering to the ranks of its taxa in the reference ordering, skipping taxa not present there
+	 *
+	 * @return ranks
+	 */
+	public int[] computeRanks(List<String> order) {
+		var ranks = new int[order.size()];
+		var length = 0;
+		for (var taxon : order) {
+			var r = rank.get(taxon);
+			if (r != null)
+				ranks[length++] = r;
+		}
+		return (length == ranks.length ? ranks : Arrays.copyOf(ranks, length));
+	}
+
+	/**
+	 * maps the given ordering of taxon ids to their ranks in the reference ordering, skipping taxa not present there
+	 *
+	 * @return ranks
+	 */
+	public int[] computeRanks(TaxonOrdering order) {
+		var ranks = new int[order.size()];
+		var length = 0;
+		for (var i = 0; i < order.size(); i++) {
+			var r = getRank(order.get(i));
+			if (r != -1)
+				ranks[length++] = r;
+		}
+		return (length == ranks.length ? ranks : Arrays.copyOf(ranks, length));
+	}
+
+	/**
+	 * counts the number of crossings between the given ordering and the reference ordering
+	 *
+	 * @return number of crossings
+	 */
+	public int count(List<String> order) {
+		return (int) countInversions(computeRanks(order));
+	}
+
+	/**
+	 * counts the number of crossings between the given ordering of taxon ids and the reference ordering
+	 *
+	 * @return number of crossings
+	 */
+	@Override
+	public int count(TaxonOrdering order) {
+		return (int) countInversions(computeRanks(order));
+	}
+
+	/**
+	 * computes the change in the number of crossings obtained when swapping the two adjacent blocks order[from..mid) and
+	 * order[mid..to) of an ordering of taxon ids, in O((|A|+|B|) log |B|) time
+	 *
+	 * @return number of crossings after the swap minus number of crossings before the swap
+	 */
+	@Override
+	public int swapDelta(TaxonOrdering order, int from, int mid, int to) {
+		return (int) blockSwapDelta(computeRanks(order, from, mid), computeRanks(order, mid, to));
+	}
+
+	/**
+	 * maps the taxon ids in order[from..to) to their ranks in the reference ordering, skipping taxa not present there
+	 */
+	private int[] computeRanks(TaxonOrdering order, int from, int to) {
+		var ranks = new int[to - from];
+		var length = 0;
+		for (var i = from; i < to; i++) {
+			var r = getRank(order.get(i));
+			if (r != -1)
+				ranks[length++] = r;
+		}
+		return (length == ranks.length ? ranks : Arrays.copyOf(ranks, length));
+	}
+
+	/**
+	 * counts the number of pairs i&lt;j with values[i]&gt;values[j]. Equal values do not count as an inversion.
+	 * Uses merge sort on a copy of the array.
+	 *
+	 * @return number of inversions
+	 */
+	public static long countInversions(int[] values) {
+		return countInversions(values, 0, values.length);
+	}
+
+	/**
+	 * counts the number of inversions in the range values[from..to)
+	 *
+	 * @return number of inversions
+	 */
+	public static long countInversions(int[] values, int from, int to) {
+		var length = to - from;
+		if (length < 2)
+			return 0;
+		var a = Arrays.copyOfRange(values, from, to);
+		var b = new int[length];
+		var count = 0L;
+
+		// bottom-up merge sort, counting the number of elements that each right-hand element jumps over
+		for (var width = 1; width < length; width *= 2) {
+			for (var left = 0; left < length; left += 2 * width) {
+				var mid = Math.min(left + width, length);
+				var right = Math.min(left + 2 * width, length);
+				var i = left;
+				var j = mid;
+				var k = left;
+				while (i < mid && j < right) {
+					if (a[i] <= a[j])
+						b[k++] = a[i++];
+					else {
+						count += mid - i;
+						b[k++] = a[j++];
+					}
+				}
+				while (i < mid)
+					b[k++] = a[i++];
+				while (j < right)
+					b[k++] = a[j++];
+			}
+			var tmp = a;
+			a = b;
+			b = tmp;
+		}
+		return count;
+	}
+
+	/**
+	 * computes the change in the number of crossings obtained when swapping the two adjacent blocks
+	 * values[from..mid) and values[mid..to). Only pairs with one element in each block change their relative order,
+	 * so this takes O((|A|+|B|) log |B|) time and does not depend on the rest of the ordering.
+	 *
+	 * @return number of crossings after the swap minus number of crossings before the swap
+	 */
+	public static long swapDelta(int[] values, int from, int mid, int to) {
+		return blockSwapDelta(Arrays.copyOfRange(values, from, mid), Arrays.copyOfRange(values, mid, to));
+	}
+
+	/**
+	 * computes the change in the number of crossings obtained when moving block B (which follows block A) in front of block A.
+	 * The arrays contain the ranks of the elements of the two blocks, they are sorted in place.
+	 *
+	 * @return number of crossings after the swap minus number of crossings before the swap
+	 */
+	public static long blockSwapDelta(int[] blockA, int[] blockB) {
+		if (blockA.length == 0 || blockB.length == 0)
+			return 0;
+		Arrays.sort(blockB);
+		var delta = 0L;
+		for (var a : blockA) {
+			var smaller = lowerBound(blockB, a); // number of b < a, these pairs currently cross
+			var larger = blockB.length - lowerBound(blockB, a + 1); // number of b > a, these pairs will cross
+			delta += larger - smaller;
+		}
+		return delta;
+	}
+
+	/**
+	 * computes the change in the number of crossings obtained when exchanging the two blocks A and B that are separated by block M,
+	 * that is, when A M B becomes B M A. The arrays are not modified.
+	 *
+	 * @return number of crossings after the swap minus number of crossings before the swap
+	 */
+	public static long blockSwapDelta(int[] blockA, int[] blockM, int[] blockB) {
+		if (blockM.length == 0)
+			return blockSwapDelta(blockA, blockB.clone());
+		return blockSwapDelta(blockA, blockB.clone()) + blockSwapDelta(blockA, blockM.clone()) + blockSwapDelta(blockM, blockB.clone());
+	}
+
+	/**
+	 * index of first element that is &gt;= value in a sorted array
+	 */
+	private static int lowerBound(int[] sorted, int value) {
+		var low = 0;
+		var high = sorted.length;
+		while (low < high) {
+			var mid = (low + high) >>> 1;
+			if (sorted[mid] < value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
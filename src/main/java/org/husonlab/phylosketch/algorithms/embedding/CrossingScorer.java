@@ -0,0 +1,48 @@
+/*
+ * CrossingScorer.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+/**
+ * counts the crossings between an ordering of taxon ids and some fixed other ordering
+ */
+@FunctionalInterface
+public interface CrossingScorer {
+	/**
+	 * counts the crossings of the given ordering
+	 *
+	 * @return number of crossings
+	 */
+	int count(TaxonOrdering order);
+
+	/**
+	 * computes the change in the number of crossings obtained when swapping the two adjacent blocks order[from..mid) and
+	 * order[mid..to). The default implementation counts the crossings of both orderings, implementations should override this
+	 * so as to only consider pairs of taxa with one taxon in each block.
+	 *
+	 * @return number of crossings after the swap minus number of crossings before the swap
+	 */
+	default int swapDelta(TaxonOrdering order, int from, int mid, int to) {
+		var swapped = new TaxonOrdering(order);
+		var ids = order.getIds();
+		swapped.set(from, ids, mid, to - mid);
+		swapped.set(from + to - mid, ids, from, mid - from);
+		return count(swapped) - count(order);
+	}
+}
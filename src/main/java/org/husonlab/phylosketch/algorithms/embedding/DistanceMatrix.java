@@ -0,0 +1,71 @@
+/*
+ *  DistanceMatrix.java Copyright (C) 2022 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+/**
+ * a symmetric matrix of distances between taxa, indexed by taxon ids 1..size()-1
+ * <p/>
+ * Implementations that hold resources outside the heap release them in {@link #close()}.
+ * Different entries may be set concurrently by different threads.
+ */
+public interface DistanceMatrix extends AutoCloseable {
+	/**
+	 * fraction of the maximal heap size that an on-heap matrix may occupy
+	 */
+	double MAX_HEAP_FRACTION = 0.25;
+
+	/**
+	 * number of rows and columns
+	 */
+	int size();
+
+	double get(int i, int j);
+
+	/**
+	 * sets the distance between i and j, and thus also between j and i
+	 */
+	void set(int i, int j, double value);
+
+	/**
+	 * adds the given value to the distance between i and j
+	 */
+	default void add(int i, int j, double value) {
+		set(i, j, get(i, j) + value);
+	}
+
+	@Override
+	default void close() {
+	}
+
+	/**
+	 * creates a matrix of the given size, all entries 0. Small matrices are kept on the heap in double precision,
+	 * large ones are kept in single precision in a memory-mapped temporary file.
+	 *
+	 * @param size number of rows and columns
+	 * @return new matrix
+	 */
+	static DistanceMatrix create(int size) {
+		var bytes = 8.0 * size * (size + 1) / 2;
+		if (bytes <= MAX_HEAP_FRACTION * Runtime.getRuntime().maxMemory())
+			return new PackedDistanceMatrix(size);
+		else
+			return FloatDistanceMatrix.createMemoryMapped(size);
+	}
+}
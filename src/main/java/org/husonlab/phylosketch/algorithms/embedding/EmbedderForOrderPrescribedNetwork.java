@@ -24,6 +24,8 @@ import jloda.graph.Node;
 import jloda.graph.NodeArray;
 import jloda.phylo.PhyloTree;
 import jloda.util.BitSetUtils;
+import org.husonlab.phylosketch.algorithms.LcaIndex;
+import org.husonlab.phylosketch.algorithms.Traversals;
 
 import java.io.IOException;
 import java.util.*;
@@ -55,7 +57,7 @@ public class EmbedderForOrderPrescribedNetwork {
 				var numberOfSubTrees = 0;
 				for (var v : tree.nodes()) {
 					if (node2SubTreeId.get(v) == null && v.getInDegree() != 1) {
-						computeNode2SubTreeIdRec(v, ++numberOfSubTrees, node2SubTreeId);
+						computeNode2SubTreeId(v, ++numberOfSubTrees, node2SubTreeId);
 						subTreeId2Root.put(numberOfSubTrees, v);
 					}
 				}
@@ -87,11 +89,13 @@ public class EmbedderForOrderPrescribedNetwork {
 
 				// find nested subtrees and redirect their lsa edges to aim to lca of adjacent nodes of nesting subtree
 
-				processNestedSubTrees(node2SubTreeId, numberOfSubTrees, subTreeId2Root, node2lsaParent, orderedLabeledLeaves, tree);
+				try (var lcaIndex = LcaIndex.forReticulationFreeForest(tree)) {
+					processNestedSubTrees(node2SubTreeId, numberOfSubTrees, subTreeId2Root, node2lsaParent, orderedLabeledLeaves, tree, lcaIndex);
+				}
 
 			}
 			// extend node 2 pos mapping from labeled leaves to all nodes
-			extendNode2PosRec(tree.getRoot(), node2pos);
+			extendNode2Pos(tree.getRoot(), node2pos);
 
 			// reorder the children of each node so that they reflect computed ordering
 			for (var v : tree.nodes()) {
@@ -106,11 +110,13 @@ public class EmbedderForOrderPrescribedNetwork {
 	/**
 	 * process all nested subtrees (nested means that in the ordering of taxa there is some other subtree with leaves
 	 * both before and after the one considered)
+	 *
+	 * @param lcaIndex the LCA index of the forest of subtrees
 	 */
 	private static void processNestedSubTrees(NodeArray<Integer> node2SubTreeId, int numberOfSubTrees,
 											  Map<Integer, Node> subTreeId2Root,
 											  Map<Node, Node> node2lsaParent,
-											  Node[] orderedLabeledLeaves, PhyloTree tree) throws IOException {
+											  Node[] orderedLabeledLeaves, PhyloTree tree, LcaIndex lcaIndex) throws IOException {
 		var first = new Integer[numberOfSubTrees + 1];
 		var last = new Integer[numberOfSubTrees + 1];
 
@@ -133,7 +139,7 @@ public class EmbedderForOrderPrescribedNetwork {
 			var subTreeRoot = subTreeId2Root.get(id);
 			var lsaParent = node2lsaParent.get(subTreeRoot);
 
-			if (lsaParent != null) {
+			if (lsaParent != null && first[id] != null) { // a subtree need not contain a leaf, e.g. if it only consists of a reticulation
 				var before = new BitSet();
 				var between = new BitSet();
 				var after = new BitSet();
@@ -141,16 +147,19 @@ public class EmbedderForOrderPrescribedNetwork {
 				var firstPos = first[id];
 				var lastPos = last[id];
 
-				for (var p = 0; p < orderedLabeledLeaves.length; p++) {
+				// only the leaves between the first and last leaf of the subtree are scanned, the subtrees that have leaves
+				// before or after it are determined from their first and last leaves:
+				for (var p = firstPos + 1; p < lastPos; p++) {
 					var v = orderedLabeledLeaves[p];
-					if (v != null) {
-						var vId = node2SubTreeId.get(v);
-						if (p < firstPos)
-							before.set(vId);
-						else if (p > firstPos && p < lastPos)
-							between.set(vId);
-						else if (p > lastPos)
-							after.set(vId);
+					if (v != null)
+						between.set(node2SubTreeId.get(v));
+				}
+				for (var other = 1; other <= numberOfSubTrees; other++) {
+					if (first[other] != null) {
+						if (first[other] < firstPos)
+							before.set(other);
+						if (last[other] > lastPos)
+							after.set(other);
 					}
 				}
 
@@ -190,7 +199,7 @@ public class EmbedderForOrderPrescribedNetwork {
 					}
 					if (leftNode != null && rightNode != null) {
 						// if (++count < 19)
-						moveLSAParentToEnclosingSubTreeNode(lsaParent, leftNode, rightNode, subTreeRoot);
+						moveLSAParentToEnclosingSubTreeNode(lsaParent, leftNode, rightNode, subTreeRoot, lcaIndex);
 					}
 				} else //is not nested inside another tree
 				{
@@ -203,7 +212,7 @@ public class EmbedderForOrderPrescribedNetwork {
 	/**
 	 * remove the lsa edge from lsaParent to v and reattach it so as to lead from the lca of leftNode and rightNode to v
 	 */
-	private static void moveLSAParentToEnclosingSubTreeNode(Node lsaParent, Node leftNode, Node rightNode, Node v) throws IOException {
+	private static void moveLSAParentToEnclosingSubTreeNode(Node lsaParent, Node leftNode, Node rightNode, Node v, LcaIndex lcaIndex) throws IOException {
 		if (v.getInDegree() == 1)
 			throw new IOException("Not subtree root");
 
@@ -233,7 +242,9 @@ public class EmbedderForOrderPrescribedNetwork {
 
 		tree.getLSAChildrenMap().get(lsaParent).remove(v);
 
-		var lca = getLCA(leftNode, rightNode);
+		var lca = lcaIndex.getLCA(leftNode, rightNode);
+		if (lca == null)
+			throw new IOException("Failed to determine LCA in tree");
 		tree.getLSAChildrenMap().get(lca).add(v);
 	}
 
@@ -272,45 +283,18 @@ public class EmbedderForOrderPrescribedNetwork {
 	}
 
 
-	/**
-	 * gets the lca of two nodes
-	 *
-	 * @return lca(a, b)
-	 */
-	private static Node getLCA(Node a, Node b) throws IOException {
-		var aboveA = new HashSet<Node>();
-		while (true) {
-			aboveA.add(a);
-			if (a.getInDegree() != 1)
-				break;
-			a = a.getFirstInEdge().getSource();
-		}
-
-		while (true) {
-			if (aboveA.contains(b))
-				return b;
-			if (b.getInDegree() != 1)
-				break;
-			b = b.getFirstInEdge().getSource();
-		}
-		if (!aboveA.contains(b))
-			throw new IOException("Failed to determine LCA in tree");
-		return ((PhyloTree) b.getOwner()).getRoot();
-	}
-
 	/**
 	 * extend the node2pos ordering to all nodes of the tree
 	 */
-	public static void extendNode2PosRec(Node v, Map<Node, Float> node2pos) {
-		if (node2pos.get(v) == null) {
+	public static void extendNode2Pos(Node root, Map<Node, Float> node2pos) {
+		Traversals.postOrder(root, EmbedderForOrderPrescribedNetwork::getLSAChildren, v -> node2pos.get(v) == null, v -> {
 			var pos = (float) Integer.MAX_VALUE;
 			for (var w : getLSAChildren(v)) {
-				extendNode2PosRec(w, node2pos);
 				pos = Math.min(node2pos.get(w), pos);
 			}
 			// todo: if leaf without label, need to compute a better value using reticulate edges...
 			node2pos.put(v, pos);
-		}
+		});
 	}
 
 	/**
@@ -359,18 +343,10 @@ public class EmbedderForOrderPrescribedNetwork {
 
 
 	/**
-	 * recursively number each subtree in the forest obtained by ignoring all reticulate edges
+	 * number the subtree below v in the forest obtained by ignoring all reticulate edges
 	 */
-	private static void computeNode2SubTreeIdRec(Node v, int subTreeId, NodeArray<Integer> node2SubTreeId) {
-		if (node2SubTreeId.get(v) == null) {
-			node2SubTreeId.put(v, subTreeId);
-			for (var w : v.children()) {
-				if (w.getInDegree() == 1) // e not a reticulate edge
-				{
-					computeNode2SubTreeIdRec(w, subTreeId, node2SubTreeId);
-				}
-			}
-		}
+	private static void computeNode2SubTreeId(Node v, int subTreeId, NodeArray<Integer> node2SubTreeId) {
+		Traversals.preOrder(v, Node::children, w -> w == v || (w.getInDegree() == 1 && node2SubTreeId.get(w) == null), w -> node2SubTreeId.put(w, subTreeId));
 	}
 
 
@@ -0,0 +1,111 @@
+/*
+ * EmbeddingBudget.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.util.CanceledException;
+
+/**
+ * a wall-clock time budget for computing an embedding
+ * <p/>
+ * Long-running steps check the budget. A step that has a result, such as a round of the tanglegram optimization,
+ * stops early and keeps the best result found so far. A step that has no result yet throws a {@link CanceledException},
+ * and the caller falls back to the unoptimized embedding.
+ */
+public class EmbeddingBudget {
+	/**
+	 * a budget that never expires
+	 */
+	public static final EmbeddingBudget UNLIMITED = new EmbeddingBudget(0L, false);
+
+	private final long deadline; // in the time units of System.nanoTime()
+	private final boolean limited;
+
+	private EmbeddingBudget(long deadline, boolean limited) {
+		this.deadline = deadline;
+		this.limited = limited;
+	}
+
+	/**
+	 * creates a budget that expires the given number of milliseconds from now
+	 *
+	 * @param millis milliseconds, a value of 0 or less means unlimited
+	 */
+	public static EmbeddingBudget ofMillis(long millis) {
+		if (millis <= 0)
+			return UNLIMITED;
+		else
+			return new EmbeddingBudget(System.nanoTime() + millis * 1_000_000L, true);
+	}
+
+	/**
+	 * creates a budget that expires the given number of seconds from now
+	 *
+	 * @param seconds seconds, a value of 0 or less means unlimited
+	 */
+	public static EmbeddingBudget ofSeconds(long seconds) {
+		return ofMillis(seconds * 1000L);
+	}
+
+	/**
+	 * creates a budget that expires the given number of milliseconds from now, or when this budget expires, whichever is first
+	 *
+	 * @param millis milliseconds, a value of 0 or less means no further limit
+	 */
+	public EmbeddingBudget limitToMillis(long millis) {
+		if (millis <= 0)
+			return this;
+		var other = ofMillis(millis);
+		if (limited && deadline - other.deadline <= 0)
+			return this;
+		else
+			return other;
+	}
+
+	public boolean isLimited() {
+		return limited;
+	}
+
+	/**
+	 * has the budget been used up?
+	 */
+	public boolean isExpired() {
+		return limited && System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * the number of milliseconds left, or Long.MAX_VALUE, if unlimited
+	 */
+	public long getRemainingMillis() {
+		if (!limited)
+			return Long.MAX_VALUE;
+		else
+			return Math.max(0L, (deadline - System.nanoTime()) / 1_000_000L);
+	}
+
+	/**
+	 * throws an exception, if the budget has been used up
+	 *
+	 * @throws CanceledException budget expired
+	 */
+	public void checkExpired() throws CanceledException {
+		if (isExpired())
+			throw new CanceledException();
+	}
+}
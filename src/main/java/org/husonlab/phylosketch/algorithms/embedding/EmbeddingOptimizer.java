@@ -25,9 +25,12 @@ import jloda.graph.NodeArray;
 import jloda.phylo.PhyloTree;
 import jloda.util.*;
 import jloda.util.progress.ProgressListener;
+import jloda.util.progress.ProgressSilent;
+import org.husonlab.phylosketch.algorithms.Traversals;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * compute an optimal embedding using the Neighbor-net heuristic
@@ -41,6 +44,16 @@ public class EmbeddingOptimizer {
 	 * update the embedding algorithm to a single tree
 	 */
 	public static void apply(PhyloTree tree, ProgressListener progressListener) throws CanceledException {
+		apply(tree, progressListener, EmbeddingBudget.UNLIMITED);
+	}
+
+	/**
+	 * update the embedding algorithm to a single tree, within the given time budget. If the budget is used up or the computation
+	 * is canceled before the circular ordering has been computed, then the unoptimized embedding is used
+	 *
+	 * @throws CanceledException if canceled by the user, after setting up the unoptimized embedding
+	 */
+	public static void apply(PhyloTree tree, ProgressListener progressListener, EmbeddingBudget budget) throws CanceledException {
 		if (printILP) {
 			int tempIndex = 1;
 			for (var v : tree.nodes()) {
@@ -56,13 +69,167 @@ public class EmbeddingOptimizer {
 			return;
 		}
 		//System.err.println("Computing optimal embedding using circular-ordering algorithm");
-		apply(new PhyloTree[]{tree}, progressListener, false, true);
+		try {
+			apply(new PhyloTree[]{tree}, progressListener, budget, false, true);
+		} catch (CanceledException ex) {
+			new LayoutUnoptimized().apply(tree);
+			if (!budget.isExpired())
+				throw ex;
+			System.err.println("Time budget exceeded, using unoptimized embedding");
+		}
+	}
+
+	/**
+	 * update the embedding algorithm to a single tree, within the given time budget, using the given strategy. For the
+	 * automatic strategy, the strategy is chosen by the {@link EmbeddingPlanner}
+	 *
+	 * @throws CanceledException if canceled by the user, after setting up the unoptimized embedding
+	 */
+	public static void apply(PhyloTree tree, ProgressListener progressListener, EmbeddingBudget budget, EmbeddingStrategy strategy) throws CanceledException {
+		apply(tree, progressListener, budget, strategy, null);
+	}
+
+	/**
+	 * update the embedding algorithm to a single tree, within the given time budget, using the given strategy. Whenever a
+	 * step has set up a complete embedding that a later step may improve, onImproved is run, so that the best embedding
+	 * so far can be shown
+	 *
+	 * @param onImproved run when the tree holds a better embedding than before, may be run on another thread, may be null
+	 * @throws CanceledException if canceled by the user, after setting up the unoptimized embedding
+	 */
+	public static void apply(PhyloTree tree, ProgressListener progressListener, EmbeddingBudget budget, EmbeddingStrategy strategy, Runnable onImproved) throws CanceledException {
+		var improved = (onImproved != null ? onImproved : (Runnable) () -> {
+		});
+		var start = System.currentTimeMillis();
+		var statistics = EmbeddingPlanner.Statistics.compute(tree);
+		var chosen = (strategy == EmbeddingStrategy.Automatic ? EmbeddingPlanner.plan(statistics) : strategy);
+		var startOptimization = System.currentTimeMillis();
+
+		try {
+			switch (chosen) {
+				case None -> new LayoutUnoptimized().apply(tree);
+				case Fast -> {
+					new LayoutUnoptimized().apply(tree);
+					if (tree.getNumberReticulateEdges() > 0 && !budget.isExpired()) {
+						improved.run();
+						MultiStartOptimizer.apply(tree, progressListener, budget, 1, MultiStartOptimizer.DEFAULT_SEED,
+								MultiStartOptimizer.FAST_WORK_PER_NODE * tree.getNumberOfNodes());
+					}
+				}
+				default -> {
+					apply(tree, progressListener, budget);
+					if (chosen != EmbeddingStrategy.NeighborNet && tree.getNumberReticulateEdges() > 0 && !budget.isExpired()) {
+						improved.run();
+						var changed = MultiStartOptimizer.apply(tree, progressListener, budget);
+						// the multi-start embedding gives a good bound for pruning:
+						if (chosen == EmbeddingStrategy.Exact && !budget.isExpired()) {
+							if (changed)
+								improved.run();
+							BranchAndBoundOptimizer.apply(tree, progressListener, (strategy == EmbeddingStrategy.Automatic ? budget.limitToMillis(EmbeddingPlanner.MAX_MILLIS_FOR_EXACT) : budget), onImproved);
+						}
+					}
+				}
+			}
+		} finally {
+			var finish = System.currentTimeMillis();
+			System.err.printf("Embedding network with %s using %s strategy%s (planning: %,dms, optimization: %,dms)%n", statistics, chosen,
+					(strategy == EmbeddingStrategy.Automatic ? " (automatic)" : ""), (startOptimization - start), (finish - startOptimization));
+		}
+	}
+
+	/**
+	 * warm-starts the embedding of a single tree from a given order of its leaves, such as the order currently shown, without
+	 * computing a circular ordering. The embedding is set up to respect the given order and then refined by swapping adjacent
+	 * LSA children, as long as this reduces the total displacement of the reticulate edges, so that the embedding changes little
+	 *
+	 * @param node2pos the position of each leaf, leaves without position are placed after all others
+	 * @throws CanceledException if canceled by the user while falling back to the full computation
+	 */
+	public static void applyWarmStart(PhyloTree tree, Map<Node, Float> node2pos, ProgressListener progressListener, EmbeddingBudget budget) throws CanceledException {
+		if (tree.getRoot() == null)
+			return;
+		progressListener.setTasks("Computing embedding", "warm start");
+
+		// the embedder requires distinct positions:
+		var leaves = tree.nodeStream().filter(Node::isLeaf)
+				.sorted(Comparator.comparing((Node v) -> node2pos.get(v) != null ? node2pos.get(v) : Float.MAX_VALUE).thenComparing(Node::getId))
+				.collect(Collectors.toList());
+		var leaf2pos = new HashMap<Node, Float>();
+		for (var i = 0; i < leaves.size(); i++) {
+			leaf2pos.put(leaves.get(i), (float) i + 1);
+		}
+		try {
+			EmbedderForOrderPrescribedNetwork.apply(tree, leaf2pos);
+		} catch (IOException ex) {
+			System.err.println("Warm start failed: " + ex.getMessage());
+			LSATree.computeNodeLSAChildrenMap(tree);
+			apply(tree, progressListener, budget);
+			return;
+		}
+		if (tree.getNumberReticulateEdges() > 0)
+			refineBySwaps(tree, progressListener, budget);
+	}
+
+	/**
+	 * swaps adjacent LSA children, bottom-up, as long as this reduces the total displacement of the reticulate edges
+	 */
+	private static void refineBySwaps(PhyloTree tree, ProgressListener progress, EmbeddingBudget budget) {
+		var displacement = new ReticulateDisplacement(tree);
+		var movable = displacement.movable;
+		if (movable.length == 0 || displacement.reticulateSources.length == 0)
+			return;
+
+		var order = ReticulateDisplacement.copy(displacement.children, null);
+		var workspace = new ReticulateDisplacement.Workspace(displacement.nodes.length);
+		displacement.layout(order, 0, 0, workspace);
+		var initialScore = displacement.displacement(0, workspace);
+		var score = initialScore;
+
+		var improved = true;
+		while (improved && score > 0) {
+			improved = false;
+			for (var m = movable.length - 1; m >= 0; m--) {
+				if ((m & 63) == 0 && ReticulateDisplacement.mustStop(progress, budget)) {
+					improved = false;
+					break;
+				}
+				var v = movable[m];
+				var list = order[v];
+				for (var i = 0; i + 1 < list.length; i++) {
+					var before = displacement.displacement(v, workspace);
+					MultiStartOptimizer.swap(list, i, i + 1);
+					displacement.layout(order, v, workspace.first[v], workspace);
+					var delta = displacement.displacement(v, workspace) - before;
+					if (delta < 0) {
+						score += delta;
+						improved = true;
+					} else {
+						MultiStartOptimizer.swap(list, i, i + 1);
+						displacement.layout(order, v, workspace.first[v], workspace);
+					}
+				}
+			}
+		}
+		System.err.println("Warm start reticulate displacement: " + initialScore + " -> " + score);
+		if (score < initialScore)
+			displacement.apply(tree, order);
 	}
 
 	/**
 	 * apply the embedding algorithm to a whole set of trees
 	 */
 	public static void apply(PhyloTree[] trees, ProgressListener progressListener, boolean shortestPath, boolean useFastAlignmentHeuristic) throws CanceledException {
+		apply(trees, progressListener, EmbeddingBudget.UNLIMITED, shortestPath, useFastAlignmentHeuristic);
+	}
+
+	/**
+	 * apply the embedding algorithm to a whole set of trees, within the given time budget. For two trees, once the budget
+	 * is used up, no further rounds of optimization are started and the best orderings found so far are used
+	 *
+	 * @throws CanceledException if canceled or the budget is used up before the circular ordering has been computed.
+	 *                           The trees are then left as they were
+	 */
+	public static void apply(PhyloTree[] trees, ProgressListener progressListener, EmbeddingBudget budget, boolean shortestPath, boolean useFastAlignmentHeuristic) throws CanceledException {
 		progressListener.setTasks("Computing embedding", "optimizing");
 		//progressListener.setCancelable(false);
 		progressListener.setMaximum(-1);
@@ -109,10 +276,15 @@ public class EmbeddingOptimizer {
 		final int[] circularOrdering;
 		//if(!useFastAlignmentHeuristic)
 		//    shortestPath =true;
-		if (shortestPath)
-			circularOrdering = computerCircularOrderingShortestPathMatrix(trees, taxon2Id, id2Taxon);
-		else
-			circularOrdering = computerCircularOrderingHardwiredMatrix(trees, taxon2Id, id2Taxon);
+		try {
+			if (shortestPath)
+				circularOrdering = computerCircularOrderingShortestPathMatrix(trees, taxon2Id, id2Taxon, progressListener, budget);
+			else
+				circularOrdering = computerCircularOrderingHardwiredMatrix(trees, taxon2Id, id2Taxon, progressListener, budget);
+		} catch (CanceledException ex) {
+			removeFormalRoots(dummyLeaves);
+			throw ex;
+		}
 
 		if (DEBUG)
 			System.err.println("circularOrdering: " + StringUtils.toString(circularOrdering, " "));
@@ -140,32 +312,35 @@ public class EmbeddingOptimizer {
 				System.err.println();
 			}
 
-			var forests = (Vector<PhyloTree>[]) new Vector[2];
-			forests[0] = new Vector<>();
-			forests[1] = new Vector<>();
-			var tempOrder = (Vector<List<String>>[]) new Vector[2];
+			// the forests are computed once, each tour only resets the order of the LSA children
+			var forests = new ReticulationFreeForest[]{new ReticulationFreeForest(trees[0]), new ReticulationFreeForest(trees[1])};
+			var tempOrder = (Vector<TaxonOrdering>[]) new Vector[2];
 			tempOrder[0] = new Vector<>();
 			tempOrder[1] = new Vector<>();
 
-			var newOrder = (LinkedList<String>[]) new LinkedList[2];
-			newOrder[0] = new LinkedList<>();
-			newOrder[1] = new LinkedList<>();
+			var newOrder = new TaxonOrdering[]{new TaxonOrdering(), new TaxonOrdering()};
 
-			var currOrderingListNew = new LinkedList<String>();
-			for (var i = 1; i < bestOrdering.length; i++) {
-				currOrderingListNew.add(id2Taxon.get(bestOrdering[i]));
+			// labeled internal nodes can become leaves of the reticulation-free forests, so they also need ids
+			for (var tree : trees) {
+				for (var v : tree.nodes()) {
+					if (tree.getLabel(v) != null)
+						TaxonOrdering.getOrCreateId(tree.getLabel(v), taxon2Id, id2Taxon);
+				}
 			}
 
-			if (!currOrderingListNew.contains("rho****"))
-				currOrderingListNew.add(0, "rho****");
+			var currOrderingListNew = TaxonOrdering.valueOf(bestOrdering, 1, bestOrdering.length);
+
+			if (!currOrderingListNew.contains(idRho))
+				currOrderingListNew.add(0, idRho);
 
 			var best = Integer.MAX_VALUE;
+			TaxonOrdering[] bestOrder = null;
 			var swapTourNew = 0;
 			while (swapTourNew < 5) {
 				//System.err.println("swapTourNew " +swapTourNew);
 				if (swapTourNew != 0) {
-					forests[0].clear();
-					forests[1].clear();
+					if (budget.isExpired())
+						break;
 					currOrderingListNew = newOrder[swapTourNew % 2];
 					tempOrder[0].clear();
 					tempOrder[1].clear();
@@ -174,47 +349,38 @@ public class EmbeddingOptimizer {
 				//System.err.println("currOrderingListNew:" + currOrderingListNew.toString());
 				swapTourNew++;
 
+				final var crossingCounter = new CrossingCounter(currOrderingListNew);
+
 				for (var s = 0; s < 2; s++) {
 					//System.err.println("tree " +s);
 
-					for (var node : trees[s].nodes()) {
-						if (node.getInDegree() > 1) {
-							var tempP = copySubtreeWithoutReticulations(trees[s], node);
-							LSATree.computeNodeLSAChildrenMap(tempP);
-							forests[s].add(tempP);
-						}
-					}
-					var tempP = copySubtreeWithoutReticulations(trees[s], trees[s].getRoot());
-					LSATree.computeNodeLSAChildrenMap(tempP);
-					forests[s].add(tempP);
+					forests[s].resetLSAChildren();
+					var components = forests[s].getComponents();
 
-					for (var a = 0; a < forests[s].size(); a++) {
-						OptimizeUtils.lsaOptimization(forests[s].get(a), currOrderingListNew, 0, null, null);
-						final var tempOrd = new ArrayList<String>();
-						OptimizeUtils.getLsaOrderRec(forests[s].get(a), forests[s].get(a).getRoot(), tempOrd);
+					for (var a = 0; a < components.size(); a++) {
+						OptimizeUtils.lsaOptimization(components.get(a), currOrderingListNew, taxon2Id);
+						final var lsaOrder = new TaxonOrdering();
+						OptimizeUtils.getLsaOrder(components.get(a), components.get(a).getRoot(), taxon2Id, lsaOrder);
 
 						//todo : some trees have "?" as leaves (ex paper) solve this problem
 
-						var sizeBefore = tempOrd.size();
-						for (var ind = 0; ind < sizeBefore; ind++) {
-							if (tempOrd.get(ind) == null) {
-								tempOrd.remove(tempOrd.get(ind));
-								sizeBefore--;
-								ind--;
-							}
+						final var tempOrd = new TaxonOrdering(lsaOrder.size());
+						for (var ind = 0; ind < lsaOrder.size(); ind++) {
+							if (lsaOrder.get(ind) != 0) // skip unlabeled leaves
+								tempOrd.add(lsaOrder.get(ind));
 						}
 
 						tempOrder[s].add(tempOrd);
 					}
 
-					var bestOrdForNow = new LinkedList<>(tempOrder[s].get(0));
+					var bestOrdForNow = new TaxonOrdering(tempOrder[s].get(0));
 
 					//System.err.println("tempOrder[s].get(0) " + tempOrder[s].get(0).toString());
 
 					for (var a = 1; a < tempOrder[s].size(); a++) {
-						var copy = new LinkedList<String>();
-						var bestOrdTemp = new LinkedList<String>();
+						var bestOrdTemp = new TaxonOrdering();
 						var toInsert = tempOrder[s].get(a);
+						var insertionEngine = new InsertionEngine(crossingCounter, bestOrdForNow, tempOrder[s].subList(0, a), toInsert, idRho);
 
 						//not needed, it is seems to work the same without adding the rest of the order
 						//List<String> rest = new LinkedList<String>();
@@ -229,172 +395,58 @@ public class EmbeddingOptimizer {
 						//System.err.println("toInsert " + toInsert.toString());
 
 						for (var sss = 0; sss < toInsert.size(); sss++) {
+							var idToInsert = toInsert.get(sss);
 
-							var min = Integer.MAX_VALUE;
-
-							var stringToInsert = toInsert.get(sss);
-
-							if (stringToInsert.equalsIgnoreCase("rho****")) {
-								bestOrdForNow.add(0, "rho****");
+							if (idToInsert == idRho) {
+								bestOrdForNow.add(0, idRho);
 								lastOneInsOfThisTree = 1;
 							} else {
-
-								for (var p = lastOneInsOfThisTree; p < bestOrdForNow.size() + 1; p++) {  //to avoid to mes up the ordering in the tree
-									copy.addAll(bestOrdForNow);
-									copy.add(p, stringToInsert);
-									int taxaSetsThatAgree = 0;
-
-									//check if is not overlapping!
-
-									var alreadyInsertedSets = new LinkedList<List<String>>();
-									var alreadyInsertedForThisSet = new LinkedList<String>();
-
-									for (var aa = 0; aa < a; aa++) {
-										alreadyInsertedSets.add(tempOrder[s].get(aa)); //taxa of the trees of F(N) already inserted
-									}
-
-									for (var index = 0; index < sss + 1; index++) {
-										alreadyInsertedForThisSet.add(toInsert.get(index));   //taxa of this tree  already inserted
-									}
-
-									if (alreadyInsertedSets.size() != 0 && sss != 0) {
-										for (var in = 0; in < alreadyInsertedSets.size(); in++) {
-											var inf = 0;
-											var sup = 0;
-
-											var indexPastY = -1;
-											var trySupLoop = true;
-
-											for (var ind = 0; ind < alreadyInsertedSets.get(in).size(); ind++) {
-												var x = alreadyInsertedSets.get(in).get(ind); //it ensure a<b<c<d as in the paper
-												if (copy.indexOf(x) > indexPastY) {
-													for (var inde = 0; inde < alreadyInsertedForThisSet.size(); inde++) {  //only against the newly inserted
-														var y = alreadyInsertedForThisSet.get(inde);
-														if (copy.indexOf(x) < copy.indexOf(y)) {
-															inf++;
-															indexPastY = copy.indexOf(y);
-															inde = alreadyInsertedForThisSet.size(); //it ensure a<b<c<d as in the paper
-														}
-														if (inf == 2) {
-															ind = alreadyInsertedSets.get(in).size(); //uneusefull to continue
-															trySupLoop = false;
-														}
-													}
-												}
-											}
-
-											var indexPastX = -1;
-
-											if (trySupLoop) {
-												for (var inde = 0; inde < alreadyInsertedForThisSet.size(); inde++) {  //only against the newly inserted
-
-													var y = alreadyInsertedForThisSet.get(inde);
-													if (copy.indexOf(y) > indexPastX) {
-														for (var ind = 0; ind < alreadyInsertedSets.get(in).size(); ind++) {
-															var x = alreadyInsertedSets.get(in).get(ind); //it ensure a<b<c<d as in the paper
-															if (copy.indexOf(y) < copy.indexOf(x)) {
-																sup++;
-																indexPastX = copy.indexOf(x);
-																ind = alreadyInsertedSets.get(in).size(); //it ensure a<b<c<d as in the paper
-															}
-															if (sup == 2)
-																inde = alreadyInsertedForThisSet.size(); //unusefull to continue
-														}
-													}
-												}
-											}
-											if (inf > 1 || sup > 1) {
-												in = alreadyInsertedSets.size(); //it is enough one taxa set that does not agree
-											} else {
-												taxaSetsThatAgree++;
-											}
-										}
-									} else if (sss == 0) {
-										taxaSetsThatAgree = alreadyInsertedSets.size(); //the first is always good
-									}
-									if (taxaSetsThatAgree == alreadyInsertedSets.size()) {
-										var value = OptimizeUtils.computeCrossingNum(copy, currOrderingListNew);
-										if (value <= min) {
-											min = value;
-											bestOrdTemp.clear();
-											for (var in = 0; in < bestOrdForNow.size() + 1; in++) {  //I do not want to copy rest
-												bestOrdTemp.add(copy.get(in));
-
-											}
-											lastOneInsOfThisTree = p + 1;  //to avoid to mes up the ordering in the tree
-										}
-									}
-									copy.clear();
+								//to avoid to mess up the ordering in the tree, only consider positions after the last one inserted
+								var p = insertionEngine.findBestPosition(bestOrdForNow, sss, lastOneInsOfThisTree);
+								if (p != -1) {
+									bestOrdTemp.setAll(bestOrdForNow);
+									bestOrdTemp.add(p, idToInsert);
+									lastOneInsOfThisTree = p + 1;
 								}
-
-								bestOrdForNow.clear();
-								bestOrdForNow.addAll(bestOrdTemp);
+								bestOrdForNow.setAll(bestOrdTemp);
 							}
 						}
 					}
 					newOrder[s] = bestOrdForNow;
 					if (DEBUG) {
-						{
-							var set = new HashSet<>(newOrder[s]);
-							if (set.size() != newOrder[s].size()) {
-								var difference = new ArrayList<>(newOrder[s]);
-								for (var str : set)
-									difference.remove(str);
-								System.err.println("Duplicates in newOrder[" + s + "]: " + difference);
-							}
-						}
-						{
-							var set = new HashSet<>(currOrderingListNew);
-							if (set.size() != currOrderingListNew.size()) {
-								var difference = new ArrayList<>(currOrderingListNew);
-								for (var str : set)
-									difference.remove(str);
-								System.err.println("Duplicates in currOrderingListNew: " + difference);
-							}
-						}
-
 						if (newOrder[s].size() != currOrderingListNew.size()) {
 							System.err.println("\n\nERROR newOrder Partial\n\n");
-							System.err.println(newOrder[s].size() + " newOrder:            " + newOrder[s].toString());
-							System.err.println(currOrderingListNew.size() + " currOrderingListNew: " + currOrderingListNew);
-							System.err.println("In newOrder[s], not currOrderingListNew: " + CollectionUtils.difference(newOrder[s], currOrderingListNew));
-							System.err.println("In currOrderingListNew, not newOrder[s]: " + CollectionUtils.difference(currOrderingListNew, newOrder[s]));
+							System.err.println(newOrder[s].size() + " newOrder:            " + newOrder[s].toLabels(id2Taxon));
+							System.err.println(currOrderingListNew.size() + " currOrderingListNew: " + currOrderingListNew.toLabels(id2Taxon));
 						}
 					}
 				}
-				var score = OptimizeUtils.computeCrossingNum(newOrder[0], newOrder[1]);
-				if (score == best)
-					break;
+				var score = new CrossingCounter(newOrder[1]).count(newOrder[0]);
+				if (score < best) { // keep the best orderings found so far
+					best = score;
+					bestOrder = new TaxonOrdering[]{new TaxonOrdering(newOrder[0]), new TaxonOrdering(newOrder[1])};
+					progressListener.setSubtask("crossings: " + best);
+				}
 			}
+			if (bestOrder != null)
+				newOrder = bestOrder;
 
 			LSATree.computeNodeLSAChildrenMap(trees[0]);
 			LSATree.computeNodeLSAChildrenMap(trees[1]);
 
-			var finalScore = OptimizeUtils.computeCrossingNum(newOrder[0], newOrder[1]);   // the two orderings for Daniel
+			var finalScore = new CrossingCounter(newOrder[1]).count(newOrder[0]);   // the two orderings for Daniel
 
 			// get rid of dummy leaves
-			for (var v : dummyLeaves) {
-				var tree = (PhyloTree) v.getOwner();
-				for (var w : tree.nodes()) {
-					var children = tree.getLSAChildrenMap().get(w);
-					if (children != null)
-						children.remove(v);
-				}
-				var root = v.getFirstAdjacentEdge().getOpposite(v);
-				tree.deleteNode(v);
-				v = root;
-				if (v.getDegree() > 0)
-					root = v.getFirstAdjacentEdge().getOpposite(v);
-				tree.deleteNode(v);
-				tree.setRoot(root);
-			}
-			newOrder[0].remove(0);
-			newOrder[1].remove(0);
+			removeFormalRoots(dummyLeaves);
+			newOrder[0].removeAt(0);
+			newOrder[1].removeAt(0);
 
+			// map back to taxon labels
+			var newOrderLabels = List.of(newOrder[0].toLabels(id2Taxon), newOrder[1].toLabels(id2Taxon));
 
 			if (DEBUG) {
-				System.err.println("first: " + StringUtils.toString(newOrder[0], " "));
-				System.err.println("second: " + StringUtils.toString(newOrder[1], " "));
+				System.err.println("first: " + StringUtils.toString(newOrderLabels.get(0), " "));
+				System.err.println("second: " + StringUtils.toString(newOrderLabels.get(1), " "));
 			}
 
 			if (true)
@@ -402,13 +454,13 @@ public class EmbeddingOptimizer {
 			if (DEBUG) {
 				for (var i = 0; i < trees.length; i++) {
 					System.err.println("Order of the taxa in tree " + (i + 1) + ":");
-					System.err.println(newOrder[i]);
+					System.err.println(newOrderLabels.get(i));
 				}
 			}
 			// reorder adjacencies to reflect the ordering:
 			try {
 				for (int i = 0; i < trees.length; i++) {
-					var node2pos = EmbedderForOrderPrescribedNetwork.setupOrderingFromNames(trees[i], newOrder[i]);
+					var node2pos = EmbedderForOrderPrescribedNetwork.setupOrderingFromNames(trees[i], newOrderLabels.get(i));
 					EmbedderForOrderPrescribedNetwork.apply(trees[i], node2pos);
 				}
 			} catch (IOException ex) {
@@ -420,6 +472,27 @@ public class EmbeddingOptimizer {
 		}
 	}
 
+	/**
+	 * removes the formal root nodes and dummy leaves added at the beginning of the computation
+	 */
+	private static void removeFormalRoots(Collection<Node> dummyLeaves) {
+		for (var v : dummyLeaves) {
+			var tree = (PhyloTree) v.getOwner();
+			for (var w : tree.nodes()) {
+				var children = tree.getLSAChildrenMap().get(w);
+				if (children != null)
+					children.remove(v);
+			}
+			var root = v.getFirstAdjacentEdge().getOpposite(v);
+			tree.deleteNode(v);
+			v = root;
+			if (v.getDegree() > 0)
+				root = v.getFirstAdjacentEdge().getOpposite(v);
+			tree.deleteNode(v);
+			tree.setRoot(root);
+		}
+	}
+
 	/**
 	 * fast heuristic that tries to rotate trees so that they match the given ordering
 	 */
@@ -457,7 +530,7 @@ public class EmbeddingOptimizer {
 						}
 				}
 			}
-			computeTaxaBelowRec(tree.getRoot(), taxaBelow);
+			computeTaxaBelow(tree.getRoot(), taxaBelow);
 			rotateTreeByTaxaBelow(tree, taxaBelow);
 			(new LayoutUnoptimized()).apply(tree);
 		}
@@ -489,19 +562,16 @@ public class EmbeddingOptimizer {
 	}
 
 	/**
-	 * recursively extends the taxa below map from leaves to all nodes
+	 * extends the taxa below map from leaves to all nodes below v
 	 */
-	public static void computeTaxaBelowRec(Node v, NodeArray<BitSet> taxaBelow) {
-		if (v.getOutDegree() > 0 && taxaBelow.get(v) == null) {
+	public static void computeTaxaBelow(Node v, NodeArray<BitSet> taxaBelow) {
+		Traversals.postOrder(v, Node::children, w -> w.getOutDegree() > 0 && taxaBelow.get(w) == null, w -> {
 			var below = new BitSet();
-
-			for (Edge e : v.outEdges()) {
-				var w = e.getTarget();
-				computeTaxaBelowRec(w, taxaBelow);
-				below.or(taxaBelow.get(w));
+			for (Edge e : w.outEdges()) {
+				below.or(taxaBelow.get(e.getTarget()));
 			}
-			taxaBelow.put(v, below);
-		}
+			taxaBelow.put(w, below);
+		});
 	}
 
 	/**
@@ -565,8 +635,23 @@ public class EmbeddingOptimizer {
 	 */
 	//working
 	public static int[] computerCircularOrderingHardwiredMatrix(PhyloTree[] trees, Map<String, Integer> taxon2ID, Map<Integer, String> id2Taxon) {
+		try {
+			return computerCircularOrderingHardwiredMatrix(trees, taxon2ID, id2Taxon, new ProgressSilent(), EmbeddingBudget.UNLIMITED);
+		} catch (CanceledException ignored) {
+			return new int[0]; // can't happen
+		}
+	}
+
+	/**
+	 * compute a circular ordering using neighbor net, within the given time budget
+	 *
+	 * @throws CanceledException if canceled or the budget is used up
+	 */
+	public static int[] computerCircularOrderingHardwiredMatrix(PhyloTree[] trees, Map<String, Integer> taxon2ID, Map<Integer, String> id2Taxon,
+																ProgressListener progress, EmbeddingBudget budget) throws CanceledException {
 		if (taxon2ID.size() > 2) {
-			double[][] distMat = null;
+			var distMat = DistanceMatrix.create(taxon2ID.size() + 1);
+			var clusterEngine = new HardwiredClusterEngine(taxon2ID);
 
 			var taxaTrees = new Taxa[2];
 			if (trees.length == 2) {
@@ -625,26 +710,23 @@ public class EmbeddingOptimizer {
 
 				// we extract the clusters from the modified trees
 
-				var clustersAll = OptimizeUtils.collectAllHardwiredClusters(newTrees[0]);
-				clustersAll.addAll(OptimizeUtils.collectAllHardwiredClusters(newTrees[1]));
+				var clustersAll = new HashSet<BitSet>();
+				Arrays.stream(newTrees).parallel().map(clusterEngine::computeClusters).collect(Collectors.toList()).forEach(clustersAll::addAll);
 
-				var sys = OptimizeUtils.getSplitSystem(clustersAll, taxon2ID);
-				distMat = OptimizeUtils.setMatForDiffSys(distMat, taxon2ID.size(), sys, false);
+				var sys = clusterEngine.computeSplits(clustersAll);
+				clusterEngine.addSplitDistances(sys, distMat);
 			} else {
 
 // create a new distance matrix and update it for every split system induced by the given networks
-				for (var tree : trees) {
+				for (var sys : clusterEngine.computeSplits(trees)) {
 					//System.err.println("tree ");
 
-					var clusters = OptimizeUtils.collectAllHardwiredClusters(tree);
-					var sys = OptimizeUtils.getSplitSystem(clusters, taxon2ID);
-
-					distMat = OptimizeUtils.setMatForDiffSys(distMat, taxon2ID.size(), sys, false);
+					clusterEngine.addSplitDistances(sys, distMat);
 					if (false) {
 						for (var taxon1 : taxon2ID.keySet()) {
 							System.err.println(taxon1 + ":");
 							for (var taxon2 : taxon2ID.keySet())
-								System.err.printf(" %.0f", distMat[taxon2ID.get(taxon1)][taxon2ID.get(taxon2)]);
+								System.err.printf(" %.0f", distMat.get(taxon2ID.get(taxon1), taxon2ID.get(taxon2)));
 							System.err.println();
 						}
 					}
@@ -654,7 +736,11 @@ public class EmbeddingOptimizer {
 			// get the order using NN
 
 			var ntax = taxon2ID.size();
-			var ordering = NeighborNetCycle.compute(ntax, distMat);
+			final int[] ordering;
+			try (distMat) {
+				budget.checkExpired();
+				ordering = NeighborNetCycle.compute(progress, budget, ntax, distMat);
+			}
 			if (trees.length == 2) {
 				// we restrict the ordering to the common taxa. If solution zero exist, we will find it
 				if (taxaNotInTrees[0] != null && taxaNotInTrees[1] != null) {
@@ -684,6 +770,20 @@ public class EmbeddingOptimizer {
 	 * compute a circular ordering using neighbor net
 	 */
 	public static int[] computerCircularOrderingShortestPathMatrix(PhyloTree[] trees, Map<String, Integer> taxon2ID, Map<Integer, String> id2Taxon) {
+		try {
+			return computerCircularOrderingShortestPathMatrix(trees, taxon2ID, id2Taxon, new ProgressSilent(), EmbeddingBudget.UNLIMITED);
+		} catch (CanceledException ignored) {
+			return new int[0]; // can't happen
+		}
+	}
+
+	/**
+	 * compute a circular ordering using neighbor net, within the given time budget
+	 *
+	 * @throws CanceledException if canceled or the budget is used up
+	 */
+	public static int[] computerCircularOrderingShortestPathMatrix(PhyloTree[] trees, Map<String, Integer> taxon2ID, Map<Integer, String> id2Taxon,
+																   ProgressListener progress, EmbeddingBudget budget) throws CanceledException {
 
 		if (taxon2ID.size() > 2) {
 			int count = 1;
@@ -706,9 +806,7 @@ public class EmbeddingOptimizer {
 			}
 
 
-			var max_num_nodes = 3 * taxon2ID.size() - 5; // why???????????????? why not????
-
-			var distMat = new double[max_num_nodes][max_num_nodes]; //initialize to zeros
+			var distMat = DistanceMatrix.create(taxon2ID.size() + 1); //initialize to zeros
 
 			for (var tree : trees) {
 				OptimizeUtils.computeNumberNodesInTheShortestPath(tree, taxon2ID, distMat);
@@ -716,9 +814,9 @@ public class EmbeddingOptimizer {
 
 			var numBTrees = trees.length;
 
-			for (var ii = 0; ii < distMat.length; ii++) {
-				for (int jj = 0; jj < distMat.length; jj++)
-					distMat[ii][jj] /= numBTrees;
+			for (var ii = 1; ii < distMat.size(); ii++) {
+				for (int jj = 1; jj <= ii; jj++)
+					distMat.set(ii, jj, distMat.get(ii, jj) / numBTrees);
 			}
 
 			if (DEBUG) {
@@ -729,7 +827,7 @@ public class EmbeddingOptimizer {
 				for (var ii = 1; ii <= taxon2ID.size(); ii++) {
 					System.err.print(id2Taxon.get(ii) + "\t");
 					for (var jj = 1; jj < taxon2ID.size(); jj++)
-						System.err.print(" " + distMat[ii][jj]);
+						System.err.print(" " + distMat.get(ii, jj));
 					System.err.println();
 				}
 			}
@@ -737,7 +835,10 @@ public class EmbeddingOptimizer {
 			// get the order using NN
 
 			var ntax = taxon2ID.size();
-			return NeighborNetCycle.compute(ntax, distMat);
+			try (distMat) {
+				budget.checkExpired();
+				return NeighborNetCycle.compute(progress, budget, ntax, distMat);
+			}
 		} else {
 			var ordering = new int[taxon2ID.size()];
 			var i = 0;
@@ -747,27 +848,4 @@ public class EmbeddingOptimizer {
 			return ordering;
 		}
 	}
-
-	private static PhyloTree copySubtreeWithoutReticulations(PhyloTree src, Node v) {
-		var tar = new PhyloTree();
-		try (var nodes = src.newNodeSet()) {
-			var queue = new LinkedList<Node>();
-			queue.add(v);
-			nodes.add(v);
-			while (queue.size() > 0) {
-				var w = queue.pop();
-				if (w.getInDegree() <= 1 || w == v) {
-					nodes.add(w);
-					queue.addAll(IteratorUtils.asList(w.children()));
-				}
-			}
-			var src2tar = src.extract(nodes, null, tar);
-			tar.setRoot(src2tar.get(v));
-			for (var s : src2tar.keys()) {
-				if (src.getLabel(s) != null)
-					tar.setLabel(src2tar.get(s), src.getLabel(s));
-			}
-		}
-		return tar;
-	}
 }
@@ -0,0 +1,106 @@
+/*
+ * EmbeddingPlanner.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+
+/**
+ * chooses the strategy for optimizing the embedding of a network from cheap statistics, so that small networks are
+ * embedded optimally and large ones are embedded in time that scales
+ * <p/>
+ * Trees need no optimization. The Neighbor-net heuristic takes time cubic in the number of leaves, so larger networks
+ * get the fast heuristic, unless all reticulations are transfers, in which case the layout follows the underlying tree.
+ * Small networks with few reticulations are embedded exactly, all others by the Neighbor-net heuristic, followed by
+ * multi-start annealing. The cost of the exact search grows steeply with the number of reticulations, so, when chosen
+ * by the planner, the exact search only gets {@link #MAX_MILLIS_FOR_EXACT} milliseconds, after which the best embedding
+ * found so far is kept, which is never worse than the multi-start embedding.
+ */
+public class EmbeddingPlanner {
+	public static final int MAX_LEAVES_FOR_NEIGHBOR_NET = 500;
+	public static final int MAX_LEAVES_FOR_EXACT = 50;
+	public static final int MAX_RETICULATIONS_FOR_EXACT = 5;
+	public static final long MAX_MILLIS_FOR_EXACT = 250L;
+
+	/**
+	 * chooses the strategy for a network
+	 *
+	 * @param statistics the statistics of the network
+	 * @return the strategy, never {@link EmbeddingStrategy#Automatic}
+	 */
+	public static EmbeddingStrategy plan(Statistics statistics) {
+		if (statistics.getReticulations() == 0)
+			return EmbeddingStrategy.None;
+		else if (statistics.getLeaves() > MAX_LEAVES_FOR_NEIGHBOR_NET)
+			return (statistics.isAllTransfers() ? EmbeddingStrategy.None : EmbeddingStrategy.Fast);
+		else if (statistics.getLeaves() <= MAX_LEAVES_FOR_EXACT && statistics.getReticulations() <= MAX_RETICULATIONS_FOR_EXACT)
+			return EmbeddingStrategy.Exact;
+		else
+			return EmbeddingStrategy.MultiStart;
+	}
+
+	/**
+	 * the statistics of a network used for planning
+	 */
+	public static final class Statistics {
+		private final int nodes;
+		private final int leaves;
+		private final int reticulations;
+		private final boolean allTransfers;
+
+		private Statistics(int nodes, int leaves, int reticulations, boolean allTransfers) {
+			this.nodes = nodes;
+			this.leaves = leaves;
+			this.reticulations = reticulations;
+			this.allTransfers = allTransfers;
+		}
+
+		/**
+		 * computes the statistics of a network in linear time
+		 */
+		public static Statistics compute(PhyloTree tree) {
+			var leaves = (int) tree.nodeStream().filter(Node::isLeaf).count();
+			var reticulations = (int) tree.nodeStream().filter(v -> v.getInDegree() > 1).count();
+			var allTransfers = (reticulations > 0 && LayoutUnoptimized.isAllReticulationsAreTransfers(tree));
+			return new Statistics(tree.getNumberOfNodes(), leaves, reticulations, allTransfers);
+		}
+
+		public int getNodes() {
+			return nodes;
+		}
+
+		public int getLeaves() {
+			return leaves;
+		}
+
+		public int getReticulations() {
+			return reticulations;
+		}
+
+		public boolean isAllTransfers() {
+			return allTransfers;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%,d nodes, %,d leaves, %,d reticulations%s", nodes, leaves, reticulations, (allTransfers ? ", all transfers" : ""));
+		}
+	}
+}
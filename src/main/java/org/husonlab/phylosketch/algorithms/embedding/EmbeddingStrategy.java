@@ -0,0 +1,59 @@
+/*
+ * EmbeddingStrategy.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+/**
+ * the strategies for optimizing the embedding of a network
+ */
+public enum EmbeddingStrategy {
+	/**
+	 * chosen for each network from its size and number of reticulations, see {@link EmbeddingPlanner}
+	 */
+	Automatic,
+	/**
+	 * no optimization, the LSA children are ordered as in the network, see {@link LayoutUnoptimized}
+	 */
+	None,
+	/**
+	 * no optimization, followed by a single annealing run that refines the embedding, see {@link MultiStartOptimizer}
+	 */
+	Fast,
+	/**
+	 * the deterministic Neighbor-net heuristic, see {@link EmbeddingOptimizer}
+	 */
+	NeighborNet,
+	/**
+	 * the Neighbor-net heuristic, followed by a number of independent annealing runs in parallel, see {@link MultiStartOptimizer}
+	 */
+	MultiStart,
+	/**
+	 * as MultiStart, followed by an exact branch-and-bound search, for networks with up to
+	 * {@link BranchAndBoundOptimizer#MAX_RETICULATIONS} reticulations, see {@link BranchAndBoundOptimizer}
+	 */
+	Exact;
+
+	public static EmbeddingStrategy valueOfNoFail(String name) {
+		try {
+			return EmbeddingStrategy.valueOf(name);
+		} catch (Exception ex) {
+			return EmbeddingStrategy.Automatic;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ *  FloatDistanceMatrix.java Copyright (C) 2022 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * symmetric distance matrix, stored as a packed triangular array of floats outside of the heap
+ * <p/>
+ * The entries are kept in a memory-mapped temporary file, which is unmapped and deleted on close.
+ * Uses a quarter of the memory of a double[][], and none of it on the heap.
+ */
+public class FloatDistanceMatrix implements DistanceMatrix {
+	private static final int CHUNK_BITS = 28; // 2^28 floats = 1 GB per buffer
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int size;
+	private final FloatBuffer[] chunks;
+	private final MappedByteBuffer[] buffers;
+	private final Path file;
+	private final FileChannel channel;
+
+	private FloatDistanceMatrix(int size, FloatBuffer[] chunks, MappedByteBuffer[] buffers, Path file, FileChannel channel) {
+		this.size = size;
+		this.chunks = chunks;
+		this.buffers = buffers;
+		this.file = file;
+		this.channel = channel;
+	}
+
+	/**
+	 * creates a matrix held in a memory-mapped temporary file. All entries are 0.
+	 *
+	 * @param size number of rows and columns
+	 */
+	public static FloatDistanceMatrix createMemoryMapped(int size) {
+		var length = length(size);
+		var buffers = new MappedByteBuffer[numberOfChunks(length)];
+		Path file = null;
+		FileChannel channel = null;
+		try {
+			file = Files.createTempFile("distances", ".tmp");
+			file.toFile().deleteOnExit();
+			try (var raf = new RandomAccessFile(file.toFile(), "rw")) {
+				raf.setLength(4 * length);
+			}
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			var chunks = new FloatBuffer[buffers.length];
+			for (var c = 0; c < chunks.length; c++) {
+				buffers[c] = channel.map(FileChannel.MapMode.READ_WRITE, 4L * c * CHUNK_SIZE, 4 * chunkLength(length, c));
+				chunks[c] = buffers[c].order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+			return new FloatDistanceMatrix(size, chunks, buffers, file, channel);
+		} catch (IOException | RuntimeException ex) {
+			release(buffers, channel, file);
+			throw (ex instanceof IOException ? new UncheckedIOException((IOException) ex) : (RuntimeException) ex);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		var index = index(i, j);
+		return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+	}
+
+	/**
+	 * sets the distance between i and j, and thus also between j and i. The value is stored in single precision.
+	 */
+	@Override
+	public void set(int i, int j, double value) {
+		var index = index(i, j);
+		chunks[(int) (index >>> CHUNK_BITS)].put((int) (index & CHUNK_MASK), (float) value);
+	}
+
+	/**
+	 * unmaps, closes and deletes the temporary file. The matrix must not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		Arrays.fill(chunks, null);
+		release(buffers, channel, file);
+	}
+
+	/**
+	 * unmaps the buffers, closes the channel and deletes the file, as far as they exist. If a buffer can't be unmapped,
+	 * the file can't be deleted on all platforms, and is deleted on exit instead
+	 */
+	private static void release(MappedByteBuffer[] buffers, FileChannel channel, Path file) {
+		try {
+			for (var c = 0; c < buffers.length; c++) {
+				if (buffers[c] != null) {
+					unmap(buffers[c]);
+					buffers[c] = null;
+				}
+			}
+			if (channel != null)
+				channel.close();
+		} catch (IOException ignored) {
+		} finally {
+			if (file != null)
+				file.toFile().delete();
+		}
+	}
+
+	/**
+	 * unmaps a buffer right away, rather than once it is garbage collected, using the cleaner of the JDK, if available
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			var unsafeClass = Class.forName("sun.misc.Unsafe");
+			var theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+		} catch (Exception ignored) {
+			// not available, so the buffer is unmapped once it is garbage collected
+		}
+	}
+
+	private static long index(int i, int j) {
+		if (i >= j)
+			return (long) i * (i + 1) / 2 + j;
+		else
+			return (long) j * (j + 1) / 2 + i;
+	}
+
+	private static long length(int size) {
+		return (long) size * (size + 1) / 2;
+	}
+
+	private static int numberOfChunks(long length) {
+		return (int) Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+	}
+
+	private static long chunkLength(long length, int chunk) {
+		return Math.min(CHUNK_SIZE, length - chunk * CHUNK_SIZE);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ *  HardwiredClusterEngine.java Copyright (C) 2022 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Node;
+import jloda.graph.NodeArray;
+import jloda.phylo.PhyloTree;
+import jloda.util.BitSetUtils;
+import org.husonlab.phylosketch.algorithms.Traversals;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * computes the hardwired clusters of networks as bit sets over taxon ids and the split distances they induce
+ * <p/>
+ * Clusters are computed bottom-up, once per node, and identical clusters are represented by a single bit set.
+ * The distance between two taxa is the number of distinct splits that separate them.
+ */
+public class HardwiredClusterEngine {
+	private final Map<String, Integer> taxon2ID;
+	private final BitSet activeTaxa;
+
+	/**
+	 * constructor
+	 *
+	 * @param taxon2ID the taxon ids, all taxa are considered active
+	 */
+	public HardwiredClusterEngine(Map<String, Integer> taxon2ID) {
+		this.taxon2ID = taxon2ID;
+		this.activeTaxa = BitSetUtils.asBitSet(taxon2ID.values());
+	}
+
+	/**
+	 * computes all hardwired clusters of a network, that is, for each node, the set of ids of taxa below it
+	 *
+	 * @return the set of distinct clusters
+	 */
+	public Set<BitSet> computeClusters(PhyloTree tree) {
+		var clusters = new HashMap<BitSet, BitSet>();
+		try (NodeArray<BitSet> nodeClusterMap = tree.newNodeArray()) {
+			Traversals.postOrder(tree.getRoot(), Node::children, v -> nodeClusterMap.get(v) == null, v -> {
+				var cluster = new BitSet();
+				if (v.getOutDegree() == 0)
+					cluster.set(taxon2ID.get(tree.getLabel(v)));
+				else {
+					for (var w : v.children()) {
+						cluster.or(nodeClusterMap.get(w));
+					}
+				}
+				var existing = clusters.putIfAbsent(cluster, cluster);
+				nodeClusterMap.put(v, existing != null ? existing : cluster);
+			});
+		}
+		return clusters.keySet();
+	}
+
+	/**
+	 * computes the distinct non-empty splits induced by the given clusters. Each split is represented by its side
+	 * that does not contain the first active taxon.
+	 *
+	 * @return the splits
+	 */
+	public Set<BitSet> computeSplits(Collection<BitSet> clusters) {
+		var first = activeTaxa.nextSetBit(0);
+		var splits = new HashSet<BitSet>();
+		for (var cluster : clusters) {
+			var side = (cluster.get(first) ? BitSetUtils.minus(activeTaxa, cluster) : cluster);
+			if (side.cardinality() > 0 && !activeTaxa.equals(side))
+				splits.add(side);
+		}
+		return splits;
+	}
+
+	/**
+	 * computes the splits of each of the given networks, processing the networks in parallel
+	 *
+	 * @return the splits of each network
+	 */
+	public List<Set<BitSet>> computeSplits(PhyloTree... trees) {
+		return Arrays.stream(trees).parallel().map(tree -> computeSplits(computeClusters(tree))).collect(Collectors.toList());
+	}
+
+	/**
+	 * for each split, adds 1 to the distance between any two taxa that it separates
+	 *
+	 * @param splits   splits, each given by one side
+	 * @param distances distances indexed by taxon id
+	 */
+	public void addSplitDistances(Collection<BitSet> splits, DistanceMatrix distances) {
+		for (var side : splits) {
+			var other = BitSetUtils.minus(activeTaxa, side);
+			for (var a = side.nextSetBit(0); a != -1; a = side.nextSetBit(a + 1)) {
+				for (var b = other.nextSetBit(0); b != -1; b = other.nextSetBit(b + 1)) {
+					distances.add(a, b, 1);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * IncrementalEmbedder.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import jloda.graph.NodeArray;
+import jloda.graph.NodeSet;
+import jloda.phylo.PhyloTree;
+import org.husonlab.phylosketch.algorithms.Traversals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * re-embeds a network after a local edit, such as the deletion of a subtree, keeping the current order of the leaves
+ * <p/>
+ * No new circular ordering is computed. Instead, the leaves keep the order given by their current positions, for example,
+ * their vertical positions on screen. Only the nodes affected by the edit, that is, the edited nodes and all nodes above them,
+ * have their children reordered. All other nodes keep their order of children, so, unlike {@link LayoutUnoptimized}, their
+ * LSA children are not sorted. If the tree still has the LSA children from before the edit and the edit touches no
+ * reticulation, then only the LSA children of the affected nodes are updated, as the LSA of a reticulation only depends on
+ * the nodes above it. Otherwise, the LSA tree is recomputed and the LSA nodes of all reticulations are reordered, too.
+ */
+public class IncrementalEmbedder {
+	/**
+	 * re-embeds the network
+	 *
+	 * @param tree     the network
+	 * @param node2pos the current position of each node
+	 * @param changed  the nodes at which the network was edited
+	 */
+	public static void apply(PhyloTree tree, Map<Node, Float> node2pos, Collection<Node> changed) {
+		var root = tree.getRoot();
+		if (root == null)
+			return;
+
+		try (var affected = tree.newNodeSet();
+			 NodeArray<Float> position = tree.newNodeArray()) {
+			for (var v : changed) {
+				if (v.getOwner() == tree)
+					Traversals.preOrder(v, Node::parents, w -> !affected.contains(w), affected::add);
+			}
+			if (tree.getNumberReticulateEdges() == 0)
+				tree.getLSAChildrenMap().clear();
+			else if (!updateLSAChildren(tree, changed, affected)) {
+				computeLSAChildren(tree);
+				for (var v : tree.nodes()) {
+					var lsaChildren = tree.getLSAChildrenMap().get(v);
+					if (lsaChildren != null && lsaChildren.stream().anyMatch(w -> w.getInDegree() > 1))
+						affected.add(v);
+				}
+			}
+
+			// the position of an affected node is the smallest position of any leaf below it, other nodes keep their current position,
+			// which lies between the positions of the leaves below them, so only the affected nodes and their children are visited:
+			Traversals.postOrder(root, v -> (isAffected(v, affected, node2pos) ? getChildren(tree, v) : List.of()), w -> !position.containsKey(w), v -> {
+				if (!isAffected(v, affected, node2pos))
+					position.put(v, node2pos.get(v));
+				else if (v.isLeaf())
+					position.put(v, node2pos.get(v) != null ? node2pos.get(v) : Float.MAX_VALUE);
+				else {
+					var pos = Float.MAX_VALUE;
+					for (var w : getChildren(tree, v)) {
+						pos = Math.min(pos, position.get(w));
+					}
+					position.put(v, pos);
+				}
+			});
+
+			Comparator<Node> comparator = Comparator.comparing(w -> position.get(w) != null ? position.get(w) : Float.MAX_VALUE);
+			for (var v : affected) {
+				var lsaChildren = tree.getLSAChildrenMap().get(v);
+				if (lsaChildren != null)
+					lsaChildren.sort(comparator);
+
+				var edges = new ArrayList<Edge>(v.getDegree());
+				var outEdges = new ArrayList<Edge>(v.getOutDegree());
+				for (var e : v.adjacentEdges()) {
+					if (e.getSource() == v)
+						outEdges.add(e);
+					else
+						edges.add(e);
+				}
+				outEdges.sort(Comparator.comparing(Edge::getTarget, comparator));
+				edges.addAll(outEdges);
+				v.rearrangeAdjacentEdges(edges);
+			}
+		}
+	}
+
+	/**
+	 * determines whether the position of a node must be computed from the leaves below it
+	 */
+	private static boolean isAffected(Node v, NodeSet affected, Map<Node, Float> node2pos) {
+		return affected.contains(v) || node2pos.get(v) == null;
+	}
+
+	/**
+	 * updates the LSA children from before the edit, for the affected nodes only, by removing the nodes that were deleted
+	 *
+	 * @return false, if this isn't possible, because the tree has no LSA children from before the edit, the edit touches a
+	 * reticulation or added a child to an affected node
+	 */
+	private static boolean updateLSAChildren(PhyloTree tree, Collection<Node> changed, NodeSet affected) {
+		if (tree.getLSAChildrenMap().get(tree.getRoot()) == null)
+			return false;
+		for (var v : changed) {
+			if (v.getOwner() == tree && v.getInDegree() > 1)
+				return false;
+		}
+		var updated = new ArrayList<List<Node>>(affected.size());
+		for (var v : affected) {
+			var lsaChildren = tree.getLSAChildrenMap().get(v);
+			if (lsaChildren == null)
+				return false;
+			var list = new ArrayList<Node>(lsaChildren.size());
+			var treeChildren = 0;
+			for (var w : lsaChildren) {
+				if (w.getOwner() == tree) {
+					if (w.getInDegree() < 2) {
+						if (w.getInDegree() == 0 || w.getFirstInEdge().getSource() != v)
+							return false; // a reticulation has become a tree node
+						treeChildren++;
+					}
+					list.add(w);
+				}
+			}
+			// all tree children must be listed, otherwise a child was added:
+			if (treeChildren != v.outEdgesStream(false).filter(e -> !tree.isReticulateEdge(e)).count())
+				return false;
+			updated.add(list);
+		}
+		var i = 0;
+		for (var v : affected) {
+			tree.getLSAChildrenMap().put(v, updated.get(i++));
+		}
+		return true;
+	}
+
+	/**
+	 * sets up the LSA children as {@link LayoutUnoptimized} does, but without sorting them. The LSA children of a node that is not
+	 * the LSA of a reticulation are its tree children, which are already in the current order
+	 */
+	private static void computeLSAChildren(PhyloTree tree) {
+		if (LayoutUnoptimized.isAllReticulationsAreTransfers(tree))
+			new LayoutUnoptimized().apply(tree);
+		else
+			LSATree.computeNodeLSAChildrenMap(tree);
+	}
+
+	/**
+	 * the children of a node in the LSA tree, or, if the network is a tree, in the tree
+	 */
+	private static List<Node> getChildren(PhyloTree tree, Node v) {
+		var lsaChildren = tree.getLSAChildrenMap().get(v);
+		if (lsaChildren != null)
+			return lsaChildren;
+		var children = new ArrayList<Node>(v.getOutDegree());
+		for (var e : v.outEdges()) {
+			if (!tree.isReticulateEdge(e) || tree.isTransferAcceptorEdge(e))
+				children.add(e.getTarget());
+		}
+		return children;
+	}
+}
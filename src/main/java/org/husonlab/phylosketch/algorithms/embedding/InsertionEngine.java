@@ -0,0 +1,367 @@
+/*
+ * InsertionEngine.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * finds the best position at which to insert the next taxon of a forest component into the ordering of the
+ * components already inserted, as done when merging the orderings of the reticulation-free forest in {@link EmbeddingOptimizer}
+ * <p/>
+ * A candidate position is admissible, if, for each set X of taxa already inserted, the taxa of X and the taxa
+ * of the current component inserted so far (including the new one), do not interleave as x&lt;y&lt;x&lt;y or y&lt;x&lt;y&lt;x.
+ * Among all admissible positions, the one with the smallest number of crossings is chosen, the last one in case of ties.
+ * <p/>
+ * As the taxa of each set appear in the ordering in the same order as in the set, admissibility reduces to a few interval bounds
+ * per set, and the number of crossings is updated by a single sweep over the candidate positions. For long orderings,
+ * the sweep is performed in parallel blocks.
+ * If the assumptions do not hold (duplicate taxa or the root taxon not at the start of the component), the
+ * candidate positions are checked one by one, as in the original implementation.
+ */
+public class InsertionEngine {
+	/**
+	 * minimum number of candidate positions for which the positions are scored in parallel
+	 */
+	public static final int PARALLEL_THRESHOLD = 8192;
+
+	private final CrossingCounter crossingCounter;
+	private final List<TaxonOrdering> insertedSets;
+	private final TaxonOrdering toInsert;
+	private final boolean fast;
+
+	/**
+	 * constructor
+	 *
+	 * @param crossingCounter counts crossings with the reference ordering
+	 * @param order           the current ordering
+	 * @param insertedSets    the taxa of the components already inserted into the ordering
+	 * @param toInsert        the taxa of the component to be inserted, in order
+	 * @param idRho           the id of the root taxon, which is always placed at the front of the ordering
+	 */
+	public InsertionEngine(CrossingCounter crossingCounter, TaxonOrdering order, List<TaxonOrdering> insertedSets, TaxonOrdering toInsert, int idRho) {
+		this.crossingCounter = crossingCounter;
+		this.insertedSets = insertedSets;
+		this.toInsert = toInsert;
+		this.fast = canUseIntervals(order, insertedSets, toInsert, idRho);
+	}
+
+	/**
+	 * determines the best position at which to insert the taxon toInsert.get(sss) into the ordering
+	 *
+	 * @param order the current ordering, containing the taxa toInsert.get(0..sss-1) that could be inserted
+	 * @param sss   index of the taxon to insert
+	 * @param from  first candidate position, must lie after the taxa of this component already inserted
+	 * @return the best admissible position, or -1, if there is none
+	 */
+	public int findBestPosition(TaxonOrdering order, int sss, int from) {
+		if (fast && isIncreasing(order, toInsert, sss))
+			return findBestPositionByIntervals(order, sss, from);
+		else
+			return findBestPositionByScan(order, sss, from);
+	}
+
+	/**
+	 * determines the admissible positions from the interval bounds of each inserted set and scores them in one sweep
+	 */
+	private int findBestPositionByIntervals(TaxonOrdering order, int sss, int from) {
+		var size = order.size();
+		var id = toInsert.get(sss);
+
+		// number of inserted sets for which each candidate position is admissible
+		var agree = new int[size + 2];
+		var numberOfSets = 0;
+
+		if (sss == 0) {
+			agree[from]++;
+			numberOfSets++;
+		} else {
+			var yPositions = new int[sss];
+			var numberOfY = 0;
+			for (var i = 0; i < sss; i++) {
+				var pos = order.indexOf(toInsert.get(i));
+				if (pos != -1)
+					yPositions[numberOfY++] = pos;
+			}
+			if (numberOfY > 0 && yPositions[numberOfY - 1] >= from) // new taxon might not be placed after the others
+				return findBestPositionByScan(order, sss, from);
+
+			for (var set : insertedSets) {
+				numberOfSets++;
+				var xMin = -1;
+				var xMax = -1;
+				var xNext = Integer.MAX_VALUE; // first x after the first y
+				for (var i = 0; i < set.size(); i++) {
+					var pos = order.indexOf(set.get(i));
+					if (pos != -1) {
+						if (xMin == -1)
+							xMin = pos;
+						xMax = pos;
+						if (numberOfY > 0 && pos > yPositions[0] && xNext == Integer.MAX_VALUE)
+							xNext = pos;
+					}
+				}
+				if (xMin == xMax || numberOfY == 0 || xNext == Integer.MAX_VALUE) { // all positions admissible
+					agree[from]++;
+					continue;
+				}
+				// admissible if no x lies between the y's, that is, p<=xNext
+				var upTo = xNext;
+				// or if no y lies between the x's, that is, no y in (xMin,xMax) and p<=xMin or p>xMax
+				if (!containsValueInRange(yPositions, numberOfY, xMin + 1, xMax - 1)) {
+					upTo = Math.max(upTo, xMin);
+					if (xMax + 1 <= size) {
+						agree[Math.max(from, xMax + 1)]++;
+						agree[size + 1]--;
+					}
+				}
+				if (upTo >= from) {
+					agree[from]++;
+					agree[Math.min(upTo, size) + 1]--;
+				}
+			}
+		}
+
+		// immutable snapshots of the admissible positions and of the ranks of the ordered taxa
+		var admissible = new boolean[size + 1];
+		var count = 0;
+		for (var p = 0; p <= size; p++) {
+			count += agree[p];
+			admissible[p] = (p >= from && count == numberOfSets);
+		}
+		var rank = crossingCounter.getRank(id);
+		var ranks = new int[size];
+		var value = 0; // number of crossings obtained when inserting at position from
+		if (rank != -1) {
+			value = crossingCounter.count(order);
+			for (var i = 0; i < size; i++) {
+				var r = ranks[i] = crossingCounter.getRank(order.get(i));
+				if (r != -1 && (i < from ? r > rank : r < rank))
+					value++;
+			}
+		}
+
+		if (size + 1 - from >= PARALLEL_THRESHOLD)
+			return selectBestPosition(ranks, rank, admissible, from, value);
+		else
+			return selectBestPosition(ranks, rank, admissible, from, size + 1, value)[1];
+	}
+
+	/**
+	 * sweeps over the candidate positions from..to-1, maintaining the number of crossings obtained by inserting at p.
+	 *
+	 * @param value number of crossings obtained by inserting at position from
+	 * @return the smallest number of crossings and the last admissible position obtaining it, or {Integer.MAX_VALUE,-1}
+	 */
+	private static int[] selectBestPosition(int[] ranks, int rank, boolean[] admissible, int from, int to, int value) {
+		var min = Integer.MAX_VALUE;
+		var best = -1;
+		for (var p = from; p < to; p++) {
+			if (admissible[p] && value <= min) {
+				min = value;
+				best = p;
+			}
+			if (p < ranks.length)
+				value += delta(ranks[p], rank);
+		}
+		return new int[]{min, best};
+	}
+
+	/**
+	 * scores the candidate positions in parallel, in blocks. The number of crossings at the start of each block is obtained
+	 * from the sums of the changes within the preceding blocks, which are also computed in parallel.
+	 * The block results are combined using the same tie-break as in the serial sweep, so the result does not depend on the number of threads.
+	 */
+	private static int selectBestPosition(int[] ranks, int rank, boolean[] admissible, int from, int value) {
+		var numberOfPositions = admissible.length - from;
+		var numberOfBlocks = Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), numberOfPositions / 1024));
+		var blockSize = (numberOfPositions + numberOfBlocks - 1) / numberOfBlocks;
+
+		var blockDelta = new int[numberOfBlocks];
+		IntStream.range(0, numberOfBlocks).parallel().forEach(b -> {
+			var sum = 0;
+			for (var p = from + b * blockSize; p < Math.min(from + (b + 1) * blockSize, ranks.length); p++)
+				sum += delta(ranks[p], rank);
+			blockDelta[b] = sum;
+		});
+
+		var blockValue = new int[numberOfBlocks];
+		for (var b = 0; b < numberOfBlocks; b++) {
+			blockValue[b] = value;
+			value += blockDelta[b];
+		}
+
+		return IntStream.range(0, numberOfBlocks).parallel()
+				.mapToObj(b -> selectBestPosition(ranks, rank, admissible, from + b * blockSize, Math.min(from + (b + 1) * blockSize, admissible.length), blockValue[b]))
+				.reduce(new int[]{Integer.MAX_VALUE, -1}, (x, y) -> (y[1] != -1 && (y[0] < x[0] || (y[0] == x[0] && y[1] > x[1])) ? y : x))[1];
+	}
+
+	/**
+	 * change of the number of crossings when the new taxon is moved behind the taxon of the given rank
+	 */
+	private static int delta(int r, int rank) {
+		if (rank == -1 || r == -1)
+			return 0;
+		else
+			return (r > rank ? 1 : -1);
+	}
+
+	/**
+	 * checks each candidate position by building the resulting ordering, as in the original implementation
+	 */
+	private int findBestPositionByScan(TaxonOrdering order, int sss, int from) {
+		var idToInsert = toInsert.get(sss);
+		var alreadyInsertedForThisSet = TaxonOrdering.valueOf(toInsert.getIds(), 0, sss + 1); //taxa of this tree  already inserted
+		var copy = new TaxonOrdering(order.size() + 1);
+
+		var min = Integer.MAX_VALUE;
+		var best = -1;
+
+		for (var p = from; p < order.size() + 1; p++) {
+			copy.addAll(order);
+			copy.add(p, idToInsert);
+			var taxaSetsThatAgree = 0;
+
+			//check if is not overlapping!
+
+			if (insertedSets.size() != 0 && sss != 0) {
+				for (var in = 0; in < insertedSets.size(); in++) {
+					var inf = 0;
+					var sup = 0;
+
+					var indexPastY = -1;
+					var trySupLoop = true;
+
+					for (var ind = 0; ind < insertedSets.get(in).size(); ind++) {
+						var x = insertedSets.get(in).get(ind); //it ensure a<b<c<d as in the paper
+						if (copy.indexOf(x) > indexPastY) {
+							for (var inde = 0; inde < alreadyInsertedForThisSet.size(); inde++) {  //only against the newly inserted
+								var y = alreadyInsertedForThisSet.get(inde);
+								if (copy.indexOf(x) < copy.indexOf(y)) {
+									inf++;
+									indexPastY = copy.indexOf(y);
+									inde = alreadyInsertedForThisSet.size(); //it ensure a<b<c<d as in the paper
+								}
+								if (inf == 2) {
+									ind = insertedSets.get(in).size(); //uneusefull to continue
+									trySupLoop = false;
+								}
+							}
+						}
+					}
+
+					var indexPastX = -1;
+
+					if (trySupLoop) {
+						for (var inde = 0; inde < alreadyInsertedForThisSet.size(); inde++) {  //only against the newly inserted
+
+							var y = alreadyInsertedForThisSet.get(inde);
+							if (copy.indexOf(y) > indexPastX) {
+								for (var ind = 0; ind < insertedSets.get(in).size(); ind++) {
+									var x = insertedSets.get(in).get(ind); //it ensure a<b<c<d as in the paper
+									if (copy.indexOf(y) < copy.indexOf(x)) {
+										sup++;
+										indexPastX = copy.indexOf(x);
+										ind = insertedSets.get(in).size(); //it ensure a<b<c<d as in the paper
+									}
+									if (sup == 2)
+										inde = alreadyInsertedForThisSet.size(); //unusefull to continue
+								}
+							}
+						}
+					}
+					if (inf > 1 || sup > 1) {
+						in = insertedSets.size(); //it is enough one taxa set that does not agree
+					} else {
+						taxaSetsThatAgree++;
+					}
+				}
+			} else if (sss == 0) {
+				taxaSetsThatAgree = insertedSets.size(); //the first is always good
+			}
+			if (taxaSetsThatAgree == insertedSets.size()) {
+				var value = crossingCounter.count(copy);
+				if (value <= min) {
+					min = value;
+					best = p;
+				}
+			}
+			copy.clear();
+		}
+		return best;
+	}
+
+	/**
+	 * the interval bounds are valid if no taxon occurs twice, the root taxon is not inserted after other taxa of its component
+	 * and the taxa of all inserted sets appear in the ordering in the order given by the sets
+	 */
+	private static boolean canUseIntervals(TaxonOrdering order, List<TaxonOrdering> insertedSets, TaxonOrdering toInsert, int idRho) {
+		var seen = new TaxonOrdering(order.size() + toInsert.size());
+		for (var i = 0; i < order.size(); i++) {
+			if (seen.contains(order.get(i)))
+				return false;
+			seen.add(order.get(i));
+		}
+		for (var i = 0; i < toInsert.size(); i++) {
+			if (seen.contains(toInsert.get(i)) || (i > 0 && toInsert.get(i) == idRho))
+				return false;
+			seen.add(toInsert.get(i));
+		}
+		for (var set : insertedSets) {
+			if (!isIncreasing(order, set, set.size()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * determines whether the first n taxa of the set that are present in the ordering appear in increasing order
+	 */
+	private static boolean isIncreasing(TaxonOrdering order, TaxonOrdering set, int n) {
+		var prev = -1;
+		for (var i = 0; i < n; i++) {
+			var pos = order.indexOf(set.get(i));
+			if (pos != -1) {
+				if (pos < prev)
+					return false;
+				prev = pos;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * does the sorted array contain a value in the range [low,high]?
+	 */
+	private static boolean containsValueInRange(int[] sorted, int length, int low, int high) {
+		if (low > high)
+			return false;
+		var left = 0;
+		var right = length;
+		while (left < right) {
+			var mid = (left + right) >>> 1;
+			if (sorted[mid] < low)
+				left = mid + 1;
+			else
+				right = mid;
+		}
+		return left < length && sorted[left] <= high;
+	}
+}
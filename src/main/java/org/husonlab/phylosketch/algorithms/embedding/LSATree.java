@@ -66,140 +66,104 @@ public class LSATree {
 	}
 
 	/**
-	 * recursively determine the number of edges between a reticulation and its lsa
-	 *
-	 * @return number of edges between a reticulation and its lsa
+	 * compute the reticulate node to lsa node mapping
+	 * <p/>
+	 * The LSA of a reticulation is the lowest node that lies on all paths from the root to it, that is, its immediate dominator.
+	 * Nodes are processed in topological order, so that the dominator of a node is the lowest common ancestor of its parents in the
+	 * dominator tree computed so far, which is determined using ancestor tables.
 	 */
-	private static NodeIntArray computeReticulationSize(PhyloTree tree, NodeArray<Node> reticulation2LSA) {
-		NodeIntArray rSize = new NodeIntArray(tree);
-
-		for (var r : tree.nodes()) {
-			var lsa = reticulation2LSA.get(r);
-			if (lsa != null) {
-				System.err.println("lsa: " + lsa + " r: " + r);
-				EdgeSet visited = new EdgeSet(tree);
-				computeReticulationSizeRec(r, lsa, visited);
-				rSize.set(r, visited.size());
+	public static void computeReticulation2LSA(PhyloTree tree, NodeArray<Node> reticulation2LSA) {
+		reticulation2LSA.clear();
+
+		try (var index = tree.newNodeIntArray()) {
+			var order = computeTopologicalOrder(tree, index);
+			var n = order.length;
+
+			var levels = 1;
+			while ((1 << levels) < n)
+				levels++;
+			var depth = new int[n];
+			var up = new int[levels][n]; // up[k][i] is the 2^k-th ancestor of i in the dominator tree
+
+			for (var i = 1; i < n; i++) {
+				var v = order[i];
+				var dominator = -1;
+				for (var e = v.getFirstInEdge(); e != null; e = v.getNextInEdge(e)) {
+					var p = index.getInt(e.getSource());
+					if (p != -1)
+						dominator = (dominator == -1 ? p : computeLCA(dominator, p, depth, up));
+				}
+				depth[i] = depth[dominator] + 1;
+				up[0][i] = dominator;
+				for (var k = 1; k < levels; k++)
+					up[k][i] = up[k - 1][up[k - 1][i]];
+				if (v.getInDegree() > 1)
+					reticulation2LSA.put(v, order[dominator]);
 			}
 		}
-
-		return rSize;
 	}
 
 	/**
-	 * recursively count edges from r upto lsa
+	 * computes a topological order of all nodes reachable from the root, starting with the root. Sets the index of each
+	 * such node in the order, and -1 for all other nodes
 	 */
-	private static void computeReticulationSizeRec(Node r, Node lsa, EdgeSet visited) {
-		for (var e : r.inEdges()) {
-			if (!visited.contains(e) && e.getSource() != lsa) {
-				visited.add(e);
-				computeReticulationSizeRec(e.getSource(), lsa, visited);
-			}
+	private static Node[] computeTopologicalOrder(PhyloTree tree, NodeIntArray index) {
+		for (var v : tree.nodes())
+			index.set(v, -1);
+
+		// reverse post order of a depth-first search, using an explicit stack of nodes and current out edges:
+		var postOrder = new Node[tree.getNumberOfNodes()];
+		var count = 0;
+		var stack = new Node[tree.getNumberOfNodes()];
+		var edges = new Edge[tree.getNumberOfNodes()];
+		var top = 0;
+		stack[0] = tree.getRoot();
+		edges[0] = tree.getRoot().getFirstOutEdge();
+		index.set(tree.getRoot(), 0);
+		while (top >= 0) {
+			var e = edges[top];
+			if (e != null) {
+				edges[top] = stack[top].getNextOutEdge(e);
+				var w = e.getTarget();
+				if (index.getInt(w) == -1) {
+					index.set(w, 0); // mark as visited
+					top++;
+					stack[top] = w;
+					edges[top] = w.getFirstOutEdge();
+				}
+			} else
+				postOrder[count++] = stack[top--];
 		}
-	}
 
-	/**
-	 * compute the reticulate node to lsa node mapping
-	 */
-	public static void computeReticulation2LSA(PhyloTree tree, NodeArray<Node> reticulation2LSA) {
-		reticulation2LSA.clear();
-		try (NodeArray<BitSet> ret2PathSet = tree.newNodeArray();
-			 NodeArray<EdgeArray<BitSet>> ret2Edge2PathSet = tree.newNodeArray();
-			 NodeArray<Set<Node>> node2below = tree.newNodeArray()) {
-			computeReticulation2LSARec(tree, tree.getRoot(), reticulation2LSA, ret2PathSet, ret2Edge2PathSet, node2below);
+		var order = new Node[count];
+		for (var i = 0; i < count; i++) {
+			order[i] = postOrder[count - 1 - i];
+			index.set(order[i], i);
 		}
+		return order;
 	}
 
 	/**
-	 * recursively compute the mapping of reticulate nodes to their lsa nodes
+	 * computes the lowest common ancestor of two nodes in the dominator tree
 	 */
-	private static void computeReticulation2LSARec(PhyloTree tree, Node v, NodeArray<Node> reticulation2LSA, NodeArray<BitSet> ret2PathSet, NodeArray<EdgeArray<BitSet>> ret2Edge2PathSet, NodeArray<Set<Node>> node2below) {
-		if (v.getInDegree() > 1) // this is a reticulate node, add paths to node and incoming edges
-		{
-			// create new paths for this node:
-			EdgeArray<BitSet> edge2PathSet = new EdgeArray<>(tree);
-			ret2Edge2PathSet.put(v, edge2PathSet);
-			BitSet pathsForR = new BitSet();
-			ret2PathSet.put(v, pathsForR);
-			//  assign a different path number to each in-edge:
-			int pathNum = 0;
-			for (Edge e = v.getFirstInEdge(); e != null; e = v.getNextInEdge(e)) {
-				pathNum++;
-				pathsForR.set(pathNum);
-				BitSet pathsForEdge = new BitSet();
-				pathsForEdge.set(pathNum);
-				edge2PathSet.put(e, pathsForEdge);
-			}
+	private static int computeLCA(int a, int b, int[] depth, int[][] up) {
+		if (depth[a] < depth[b]) {
+			var tmp = a;
+			a = b;
+			b = tmp;
 		}
-
-		Set<Node> reticulationsBelow = new HashSet<>(); // set of all reticulate nodes below v
-		node2below.put(v, reticulationsBelow);
-
-		// visit all children and determine all reticulations below this node
-		for (Edge f = v.getFirstOutEdge(); f != null; f = v.getNextOutEdge(f)) {
-			Node w = f.getTarget();
-			if (node2below.get(w) == null) // if haven't processed child yet, do it:
-				computeReticulation2LSARec(tree, w, reticulation2LSA, ret2PathSet, ret2Edge2PathSet, node2below);
-			reticulationsBelow.addAll(node2below.get(w));
-			if (w.getInDegree() > 1)
-				reticulationsBelow.add(w);
+		for (var k = up.length - 1; k >= 0; k--) {
+			if (depth[a] - (1 << k) >= depth[b])
+				a = up[k][a];
 		}
-
-		// check whether this is the lsa for any of the reticulations below v
-		// look at all reticulations below v:
-		List<Node> toDelete = new LinkedList<>();
-		for (Node r : reticulationsBelow) {
-			// determine which paths from the reticulation lead to this node
-			var edge2PathSet = ret2Edge2PathSet.get(r);
-			var paths = new BitSet();
-			for (var f = v.getFirstOutEdge(); f != null; f = v.getNextOutEdge(f)) {
-				BitSet eSet = edge2PathSet.get(f);
-				if (eSet != null)
-					paths.or(eSet);
-
-			}
-			BitSet alive = ret2PathSet.get(r);
-			if (paths.equals(alive)) // if the set of paths equals all alive paths, v is lsa of r
-			{
-				reticulation2LSA.put(r, v);
-				toDelete.add(r); // don't need to consider this reticulation any more
-			}
-		}
-		// don't need to consider reticulations for which lsa has been found:
-		for (Node u : toDelete)
-			reticulationsBelow.remove(u);
-
-		// all paths are pulled up the first in-edge"
-		if (v.getInDegree() >= 1) {
-			for (Node r : reticulationsBelow) {
-				// determine which paths from the reticulation lead to this node
-				EdgeArray<BitSet> edge2PathSet = ret2Edge2PathSet.get(r);
-
-				BitSet newSet = new BitSet();
-
-				for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
-					BitSet pathSet = edge2PathSet.get(e);
-					if (pathSet != null)
-						newSet.or(pathSet);
-				}
-				edge2PathSet.put(v.getFirstInEdge(), newSet);
-			}
-		}
-		// open new paths on all additional in-edges:
-		if (v.getInDegree() >= 2) {
-			for (Node r : reticulationsBelow) {
-				BitSet existingPathsForR = ret2PathSet.get(r);
-
-				EdgeArray<BitSet> edge2PathSet = ret2Edge2PathSet.get(r);
-				// start with the second in edge:
-				for (Edge e = v.getNextInEdge(v.getFirstInEdge()); e != null; e = v.getNextInEdge(e)) {
-					BitSet pathsForEdge = new BitSet();
-					int pathNum = existingPathsForR.nextClearBit(1);
-					existingPathsForR.set(pathNum);
-					pathsForEdge.set(pathNum);
-					edge2PathSet.put(e, pathsForEdge);
-				}
+		if (a == b)
+			return a;
+		for (var k = up.length - 1; k >= 0; k--) {
+			if (up[k][a] != up[k][b]) {
+				a = up[k][a];
+				b = up[k][b];
 			}
 		}
+		return up[0][a];
 	}
 }
@@ -21,8 +21,8 @@ package org.husonlab.phylosketch.algorithms.embedding;
 
 import jloda.graph.Node;
 import jloda.graph.NodeIntArray;
-import jloda.graph.NodeSet;
 import jloda.phylo.PhyloTree;
+import org.husonlab.phylosketch.algorithms.Traversals;
 
 import java.util.ArrayList;
 import java.util.TreeSet;
@@ -61,34 +61,30 @@ public class LayoutUnoptimized {
 			LSATree.computeNodeLSAChildrenMap(tree); // maps reticulate nodes to lsa nodes
 			// compute preorder numbering of all nodes
 			var ordering = new NodeIntArray(tree);
-			computePreOrderNumberingRec(tree, tree.getRoot(), new NodeSet(tree), ordering, 0);
+			computePreOrderNumbering(tree, tree.getRoot(), ordering);
 			reorderLSAChildren(tree, ordering);
 		}
 	}
 
 	/**
-	 * recursively compute the pre-ordering numbering of all nodes below v
-	 *
-	 * @return last number assigned
+	 * compute the pre-ordering numbering of all nodes below v
 	 */
-	private int computePreOrderNumberingRec(PhyloTree tree, Node v, NodeSet visited, NodeIntArray ordering, int number) {
-		if (!visited.contains(v)) {
-			visited.add(v);
-			ordering.set(v, ++number);
-
-			// todo: use this to label by order:
-			if (false) {
-				if (tree.getLabel(v) == null)
-					tree.setLabel(v, "o" + number);
-				else
-					tree.setLabel(v, tree.getLabel(v) + "_o" + number);
-			}
+	private void computePreOrderNumbering(PhyloTree tree, Node v, NodeIntArray ordering) {
+		var number = new int[]{0};
+		try (var visited = tree.newNodeSet()) {
+			Traversals.preOrder(v, Node::children, w -> !visited.contains(w), w -> {
+				visited.add(w);
+				ordering.set(w, ++number[0]);
 
-			for (var w : v.children()) {
-				number = computePreOrderNumberingRec(tree, w, visited, ordering, number);
-			}
+				// todo: use this to label by order:
+				if (false) {
+					if (tree.getLabel(w) == null)
+						tree.setLabel(w, "o" + number[0]);
+					else
+						tree.setLabel(w, tree.getLabel(w) + "_o" + number[0]);
+				}
+			});
 		}
-		return number;
 	}
 
 	/**
@@ -0,0 +1,230 @@
+/*
+ * LsaOptimizer.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Node;
+import jloda.graph.NodeArray;
+import jloda.graph.NodeIntArray;
+import jloda.graph.NodeSet;
+import jloda.phylo.PhyloTree;
+import org.husonlab.phylosketch.algorithms.Traversals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * optimizes the order of LSA children so as to minimize the number of crossings with some other ordering of taxa
+ * <p/>
+ * All nodes are processed in post-order, once for each path from the root. At each node, adjacent LSA children are swapped
+ * as long as this does not increase the number of crossings. The order of all leaves is kept in an {@link LsaOrderIndex},
+ * so the leaves below each LSA child form a block of known position. If no taxon occurs twice below a node, then a swap
+ * exchanges two adjacent blocks and is scored by only considering pairs of taxa from the two blocks.
+ * <p/>
+ * A node whose last optimization did not change the order of its LSA children is not optimized again, unless
+ * the order of LSA children of some node below it has changed since, as the outcome would be the same.
+ */
+public class LsaOptimizer implements AutoCloseable {
+	private final PhyloTree tree;
+	private final CrossingScorer crossings;
+	private final LsaOrderIndex index;
+	private final NodeArray<Boolean> distinct;
+	private final NodeSet stable;
+	private final NodeIntArray changesOnEntry;
+	private int changes;
+
+	private final NodeArray<TaxonOrdering> node2LsaLeavesBelow;
+	private final int[] mark;
+
+	/**
+	 * constructor
+	 *
+	 * @param tree      the tree or network, with LSA children map set up
+	 * @param taxon2Id  must contain the labels of all leaves of the tree
+	 * @param crossings computes the number of crossings of an ordering with the other ordering
+	 */
+	public LsaOptimizer(PhyloTree tree, Map<String, Integer> taxon2Id, CrossingScorer crossings) {
+		this.tree = tree;
+		this.crossings = crossings;
+		index = new LsaOrderIndex(tree, taxon2Id);
+		distinct = tree.newNodeArray();
+		stable = tree.newNodeSet();
+		changesOnEntry = tree.newNodeIntArray();
+		node2LsaLeavesBelow = tree.newNodeArray();
+		var maxId = 0;
+		for (var id : taxon2Id.values())
+			maxId = Math.max(maxId, id);
+		mark = new int[maxId + 1];
+	}
+
+	/**
+	 * optimizes the order of LSA children of all nodes of the tree
+	 */
+	public void apply() {
+		Traversals.traverse(tree.getRoot(), Node::children, v -> true, v -> changesOnEntry.set(v, changes), this::optimize);
+	}
+
+	/**
+	 * optimizes the order of LSA children of the given node
+	 */
+	private void optimize(Node v) {
+		List<Node> lsaChildren = tree.getLSAChildrenMap().get(v);
+		if (lsaChildren.size() <= 1)
+			return;
+
+		if (isDistinct(v)) {
+			if (stable.contains(v) && changesOnEntry.getInt(v) == changes)
+				return;
+			var before = new ArrayList<>(lsaChildren);
+			swapBlocks(v, lsaChildren);
+			if (before.equals(lsaChildren))
+				stable.add(v);
+			else {
+				stable.remove(v);
+				changes++;
+			}
+		} else {
+			var before = new ArrayList<>(lsaChildren);
+			swapAndAdapt(v, lsaChildren);
+			if (!before.equals(lsaChildren))
+				changes++;
+		}
+	}
+
+	/**
+	 * does swaps of adjacent LSA children, scoring each swap by the change of crossings between the two blocks of taxa
+	 */
+	private void swapBlocks(Node v, List<Node> lsaChildren) {
+		var order = index.getOrder(v);
+		var crossingsNow = crossings.count(order);
+		var currentBest = childrenWithLeaves(lsaChildren);
+
+		boolean stopBecauseLoop = false;
+		boolean swapped;
+		do {
+			swapped = false;
+
+			for (int o = 0; o < lsaChildren.size() - 1; o++) {
+				var first = lsaChildren.get(o);
+				var second = lsaChildren.get(o + 1);
+				var from = index.getStart(first) - index.getStart(v);
+				var mid = from + index.getSize(first);
+				var to = mid + index.getSize(second);
+
+				var crossingBefore = crossingsNow;
+				var crossingAfter = crossingBefore + crossings.swapDelta(order, from, mid, to);
+
+				index.swapLSAChildren(v, o, order);
+
+				if (currentBest.equals(childrenWithLeaves(lsaChildren))) {
+					stopBecauseLoop = true;
+					break;
+				}
+
+				if (crossingBefore < crossingAfter) {
+					index.swapLSAChildren(v, o, order);
+				} else {
+					crossingsNow = crossingAfter;
+					swapped = true;
+					if (crossingBefore > crossingAfter) {
+						currentBest = childrenWithLeaves(lsaChildren);
+					}
+				}
+			}
+		} while (lsaChildren.size() != 2 && !stopBecauseLoop && swapped);
+	}
+
+	/**
+	 * does swaps of adjacent LSA children, adapting the order using {@link OptimizeUtils#adaptLSAorder(Node, Node, TaxonOrdering, NodeArray, int[])}
+	 * and scoring each swap by counting all crossings. Used when some taxon occurs more than once below v.
+	 */
+	private void swapAndAdapt(Node v, List<Node> lsaChildren) {
+		for (var w : lsaChildren)
+			node2LsaLeavesBelow.put(w, index.getOrder(w));
+
+		var lsaOrderInLastOpti = index.getOrder(v);
+		final var currentBestOrder = new TaxonOrdering(lsaOrderInLastOpti);
+
+		boolean stopBecauseLoop = false;
+		boolean swapped;
+		do {
+			swapped = false;
+
+			for (int o = 0; o < lsaChildren.size() - 1; o++) {
+				var crossingBefore = crossings.count(lsaOrderInLastOpti);
+
+				var temp1 = lsaChildren.get(o);
+				var temp2 = lsaChildren.get(o + 1);
+				index.swapLSAChildren(v, o, null);
+				lsaOrderInLastOpti = OptimizeUtils.adaptLSAorder(temp1, temp2, lsaOrderInLastOpti, node2LsaLeavesBelow, mark);
+
+				if (currentBestOrder.equals(lsaOrderInLastOpti)) {
+					stopBecauseLoop = true;
+					break;
+				}
+
+				var crossingAfter = crossings.count(lsaOrderInLastOpti);
+
+				if (crossingBefore < crossingAfter) {
+					index.swapLSAChildren(v, o, null);
+					lsaOrderInLastOpti = OptimizeUtils.adaptLSAorder(temp2, temp1, lsaOrderInLastOpti, node2LsaLeavesBelow, mark);
+				} else {
+					swapped = true;
+					if (crossingBefore > crossingAfter) {
+						currentBestOrder.setAll(lsaOrderInLastOpti);
+					}
+				}
+			}
+		} while (lsaChildren.size() != 2 && !stopBecauseLoop && swapped);
+
+		for (var w : lsaChildren)
+			node2LsaLeavesBelow.put(w, null);
+	}
+
+	/**
+	 * the LSA children that have leaves below them. If no taxon occurs twice, these determine the order of taxa below their parent
+	 */
+	private List<Node> childrenWithLeaves(List<Node> lsaChildren) {
+		var list = new ArrayList<Node>(lsaChildren.size());
+		for (var w : lsaChildren) {
+			if (index.getSize(w) > 0)
+				list.add(w);
+		}
+		return list;
+	}
+
+	private boolean isDistinct(Node v) {
+		var result = distinct.get(v);
+		if (result == null) {
+			result = index.isDistinct(v);
+			distinct.put(v, result);
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+		index.close();
+		distinct.close();
+		stable.close();
+		changesOnEntry.close();
+		node2LsaLeavesBelow.close();
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * LsaOrderIndex.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Node;
+import jloda.graph.NodeIntArray;
+import jloda.phylo.PhyloTree;
+import org.husonlab.phylosketch.algorithms.Traversals;
+
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * the taxon ids of all leaves of a tree, in the order given by the LSA tree, together with the interval of leaves
+ * below each node
+ * <p/>
+ * The leaves below any node of the LSA tree form a contiguous interval of the ordering. Swapping two adjacent LSA children
+ * using {@link #swapLSAChildren(Node, int)} only moves the leaves below the two children and shifts their intervals,
+ * so that the order below a node never needs to be recollected from the tree.
+ * Leaves that have no label or a label not contained in taxon2Id get id 0, as in
+ * {@link OptimizeUtils#getLsaOrder(PhyloTree, Node, Map, TaxonOrdering)}.
+ */
+public class LsaOrderIndex implements AutoCloseable {
+	private final PhyloTree tree;
+	private final int[] ids;
+	private final int[] buffer;
+	private final NodeIntArray start;
+	private final NodeIntArray size;
+
+	/**
+	 * constructor
+	 *
+	 * @param tree     the tree or network, with LSA children map set up
+	 * @param taxon2Id the taxon ids
+	 */
+	public LsaOrderIndex(PhyloTree tree, Map<String, Integer> taxon2Id) {
+		this.tree = tree;
+		start = tree.newNodeIntArray();
+		size = tree.newNodeIntArray();
+
+		var count = new int[]{0};
+		Traversals.traverse(tree.getRoot(), w -> Traversals.lsaChildren(tree, w), w -> true, w -> {
+			start.set(w, count[0]);
+			if (w.isLeaf())
+				count[0]++;
+		}, w -> size.set(w, count[0] - start.getInt(w)));
+
+		ids = new int[count[0]];
+		buffer = new int[count[0]];
+		Traversals.leavesInLSAOrder(tree, tree.getRoot(), w -> {
+			var label = tree.getLabel(w);
+			var id = (label != null ? taxon2Id.get(label) : null);
+			ids[start.getInt(w)] = (id != null ? id : 0);
+		});
+	}
+
+	/**
+	 * the position of the first leaf below v in the ordering of all leaves
+	 */
+	public int getStart(Node v) {
+		return start.getInt(v);
+	}
+
+	/**
+	 * the number of leaves below v in the LSA tree
+	 */
+	public int getSize(Node v) {
+		return size.getInt(v);
+	}
+
+	/**
+	 * gets the order of taxon ids below v in the LSA tree
+	 */
+	public TaxonOrdering getOrder(Node v) {
+		return TaxonOrdering.valueOf(ids, getStart(v), getStart(v) + getSize(v));
+	}
+
+	/**
+	 * determines whether all taxon ids below v are different
+	 */
+	public boolean isDistinct(Node v) {
+		var seen = new BitSet();
+		for (var i = getStart(v); i < getStart(v) + getSize(v); i++) {
+			if (seen.get(ids[i]))
+				return false;
+			seen.set(ids[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * swaps the LSA children of v at positions o and o+1, and updates the ordering and the intervals of all nodes below
+	 * the two children
+	 *
+	 * @param orderBelowV if non-null, the order below v, as obtained by {@link #getOrder(Node)}, is updated, too
+	 */
+	public void swapLSAChildren(Node v, int o, TaxonOrdering orderBelowV) {
+		var lsaChildren = tree.getLSAChildrenMap().get(v);
+		var first = lsaChildren.get(o);
+		var second = lsaChildren.get(o + 1);
+		lsaChildren.set(o, second);
+		lsaChildren.set(o + 1, first);
+
+		var from = getStart(first);
+		var size1 = getSize(first);
+		var size2 = getSize(second);
+		if (size1 > 0 && size2 > 0) {
+			System.arraycopy(ids, from, buffer, 0, size1);
+			System.arraycopy(ids, from + size1, ids, from, size2);
+			System.arraycopy(buffer, 0, ids, from + size2, size1);
+			if (orderBelowV != null)
+				orderBelowV.set(from - getStart(v), ids, from, size1 + size2);
+		}
+		Traversals.preOrderLSA(tree, first, w -> start.set(w, start.getInt(w) + size2));
+		Traversals.preOrderLSA(tree, second, w -> start.set(w, start.getInt(w) - size1));
+	}
+
+	@Override
+	public void close() {
+		start.close();
+		size.close();
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Many2ManyCrossingCounter.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * counts the crossings between an ordering of taxa and a reference ordering, in the case that each taxon is connected
+ * to any number of taxa of the reference ordering, as for host-parasite tanglegrams
+ * <p/>
+ * The connections of each taxon are flattened to a sorted array of ranks of the connected taxa in the reference ordering.
+ * The connections of an ordering, sorted by the position of the taxon and then by rank, form a sequence of ranks whose
+ * number of inversions is the number of crossings. This takes O(m log m) time, for m connections.
+ * Connections to taxa that are not contained in the reference ordering are ignored, as in
+ * {@link OptimizeUtils#compCrossingsMany2Many(List, List, Map)}.
+ */
+public class Many2ManyCrossingCounter implements CrossingScorer {
+	private static final int[] NONE = new int[0];
+
+	private final Map<String, int[]> partnerRanks;
+	private final int[][] partnerRanksById;
+
+	/**
+	 * constructor
+	 *
+	 * @param reference the ordering against which crossings are counted
+	 * @param taxCon    maps each taxon to the list of taxa of the reference ordering that it is connected to
+	 */
+	public Many2ManyCrossingCounter(List<String> reference, Map<String, List<String>> taxCon) {
+		var rank = computeRanks(reference);
+		partnerRanks = new HashMap<>();
+		for (var entry : taxCon.entrySet())
+			partnerRanks.put(entry.getKey(), computePartnerRanks(entry.getValue(), rank));
+		partnerRanksById = null;
+	}
+
+	/**
+	 * constructor for counting crossings of orderings of taxon ids
+	 *
+	 * @param reference the ordering against which crossings are counted
+	 * @param taxCon    maps each taxon to the list of taxa of the reference ordering that it is connected to
+	 * @param taxon2Id  the taxon ids
+	 */
+	public Many2ManyCrossingCounter(List<String> reference, Map<String, List<String>> taxCon, Map<String, Integer> taxon2Id) {
+		var rank = computeRanks(reference);
+		partnerRanks = null;
+		var maxId = 0;
+		for (var id : taxon2Id.values())
+			maxId = Math.max(maxId, id);
+		partnerRanksById = new int[maxId + 1][];
+		Arrays.fill(partnerRanksById, NONE);
+		for (var entry : taxon2Id.entrySet()) {
+			var partners = taxCon.get(entry.getKey());
+			if (partners != null)
+				partnerRanksById[entry.getValue()] = computePartnerRanks(partners, rank);
+		}
+	}
+
+	/**
+	 * counts the number of crossings between the given ordering and the reference ordering
+	 *
+	 * @return number of crossings
+	 */
+	public int count(List<String> order) {
+		var length = 0;
+		for (var taxon : order)
+			length += getPartnerRanks(taxon).length;
+		var ranks = new int[length];
+		length = 0;
+		for (var taxon : order) {
+			var partners = getPartnerRanks(taxon);
+			System.arraycopy(partners, 0, ranks, length, partners.length);
+			length += partners.length;
+		}
+		return (int) CrossingCounter.countInversions(ranks);
+	}
+
+	/**
+	 * counts the number of crossings between the given ordering of taxon ids and the reference ordering
+	 *
+	 * @return number of crossings
+	 */
+	@Override
+	public int count(TaxonOrdering order) {
+		return (int) CrossingCounter.countInversions(collectPartnerRanks(order, 0, order.size()));
+	}
+
+	/**
+	 * computes the change in the number of crossings obtained when swapping the two adjacent blocks order[from..mid) and
+	 * order[mid..to) of an ordering of taxon ids. Only connections of taxa in the two blocks are considered.
+	 *
+	 * @return number of crossings after the swap minus number of crossings before the swap
+	 */
+	@Override
+	public int swapDelta(TaxonOrdering order, int from, int mid, int to) {
+		return (int) CrossingCounter.blockSwapDelta(collectPartnerRanks(order, from, mid), collectPartnerRanks(order, mid, to));
+	}
+
+	private int[] collectPartnerRanks(TaxonOrdering order, int from, int to) {
+		var length = 0;
+		for (var i = from; i < to; i++)
+			length += getPartnerRanks(order.get(i)).length;
+		var ranks = new int[length];
+		length = 0;
+		for (var i = from; i < to; i++) {
+			var partners = getPartnerRanks(order.get(i));
+			System.arraycopy(partners, 0, ranks, length, partners.length);
+			length += partners.length;
+		}
+		return ranks;
+	}
+
+	private int[] getPartnerRanks(String taxon) {
+		return partnerRanks.getOrDefault(taxon, NONE);
+	}
+
+	private int[] getPartnerRanks(int id) {
+		return (id >= 0 && id < partnerRanksById.length ? partnerRanksById[id] : NONE);
+	}
+
+	/**
+	 * maps each taxon of the reference ordering to its rank. If a taxon occurs more than once, its last occurrence is used
+	 */
+	private static Map<String, Integer> computeRanks(List<String> reference) {
+		var rank = new HashMap<String, Integer>();
+		for (var i = 0; i < reference.size(); i++)
+			rank.put(reference.get(i), i);
+		return rank;
+	}
+
+	/**
+	 * the sorted ranks of the connected taxa, skipping those not contained in the reference ordering
+	 */
+	private static int[] computePartnerRanks(List<String> partners, Map<String, Integer> rank) {
+		if (partners == null)
+			return NONE;
+		var ranks = new int[partners.size()];
+		var length = 0;
+		for (var partner : partners) {
+			var r = rank.get(partner);
+			if (r != null)
+				ranks[length++] = r;
+		}
+		ranks = (length == ranks.length ? ranks : Arrays.copyOf(ranks, length));
+		Arrays.sort(ranks);
+		return ranks;
+	}
+}
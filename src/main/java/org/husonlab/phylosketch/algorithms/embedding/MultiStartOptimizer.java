@@ -0,0 +1,202 @@
+/*
+ * MultiStartOptimizer.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.phylo.PhyloTree;
+import jloda.util.progress.ProgressListener;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * optimizes the order of LSA children of a network using a number of independent simulated-annealing runs in parallel
+ * <p/>
+ * The score of an embedding is the total displacement of the reticulate edges, see {@link ReticulateDisplacement}. The
+ * first run starts from the current embedding, all others start from a random order of LSA children. A step swaps two LSA
+ * children of a random node, which only moves the nodes below that node, so only these and the reticulate edges incident
+ * to them are rescored. Each run has its own seed, derived from the given seed, and runs share the best embedding found so
+ * far by compare-and-set. Ties are broken by run number, so that, unless the time budget is used up,
+ * the result only depends on the seed and not on the number of processors or the order in which runs finish.
+ */
+public class MultiStartOptimizer {
+	public static final int DEFAULT_RUNS = 8;
+	public static final long DEFAULT_SEED = 666L;
+	public static final long FAST_WORK_PER_NODE = 200L; // for the fast strategy, a run rescores about this many nodes per node of the network
+
+	private static final int STEPS_PER_NODE = 100;
+	private static final long MAX_STEPS_PER_RUN = 2_000_000L;
+
+	private final ReticulateDisplacement displacement;
+
+	private MultiStartOptimizer(PhyloTree tree) {
+		displacement = new ReticulateDisplacement(tree);
+	}
+
+	/**
+	 * optimizes the embedding of a network, using the default number of runs and seed
+	 */
+	public static boolean apply(PhyloTree tree, ProgressListener progress, EmbeddingBudget budget) {
+		return apply(tree, progress, budget, DEFAULT_RUNS, DEFAULT_SEED);
+	}
+
+	/**
+	 * optimizes the embedding of a network. If a better embedding is found, the LSA children and the out-edges of all nodes are
+	 * reordered accordingly
+	 *
+	 * @param tree     the network, with LSA children map set up
+	 * @param progress allows the user to cancel, in which case the best embedding found so far is used
+	 * @param budget   the time budget, once used up, all runs stop and the best embedding found so far is used
+	 * @param runs     the number of runs
+	 * @param seed     the seed from which the seeds of all runs are derived
+	 * @return true, if the embedding was changed
+	 */
+	public static boolean apply(PhyloTree tree, ProgressListener progress, EmbeddingBudget budget, int runs, long seed) {
+		return apply(tree, progress, budget, runs, seed, Long.MAX_VALUE);
+	}
+
+	/**
+	 * optimizes the embedding of a network, limiting the work of each run. If a better embedding is found, the LSA children and
+	 * the out-edges of all nodes are reordered accordingly
+	 *
+	 * @param tree     the network, with LSA children map set up
+	 * @param progress allows the user to cancel, in which case the best embedding found so far is used
+	 * @param budget   the time budget, once used up, all runs stop and the best embedding found so far is used
+	 * @param runs     the number of runs
+	 * @param seed     the seed from which the seeds of all runs are derived
+	 * @param maxWork  the expected number of nodes rescored by a run is limited to this, by reducing the number of steps
+	 * @return true, if the embedding was changed
+	 */
+	public static boolean apply(PhyloTree tree, ProgressListener progress, EmbeddingBudget budget, int runs, long seed, long maxWork) {
+		if (tree.getRoot() == null || tree.getNumberReticulateEdges() == 0)
+			return false;
+
+		var optimizer = new MultiStartOptimizer(tree);
+		var displacement = optimizer.displacement;
+		if (displacement.movable.length == 0 || displacement.reticulateSources.length == 0)
+			return false;
+
+		progress.setSubtask("multi-start");
+		var seeds = new SplittableRandom(seed).longs(runs).toArray();
+		var initialScore = displacement.displacement(displacement.children);
+		var best = new AtomicReference<Result>();
+		IntStream.range(0, runs).parallel().forEach(run -> {
+			var result = optimizer.run(run, seeds[run], maxWork, progress, budget);
+			best.accumulateAndGet(result, (a, b) -> (a == null || b.isBetterThan(a) ? b : a));
+		});
+
+		System.err.println("Multi-start reticulate displacement: " + initialScore + " -> " + best.get().score);
+		if (best.get().score < initialScore) {
+			displacement.apply(tree, best.get().order);
+			return true;
+		} else
+			return false;
+	}
+
+	/**
+	 * a single annealing run
+	 *
+	 * @param run     the number of the run, run 0 starts from the current embedding
+	 * @param maxWork the maximum expected number of nodes rescored
+	 */
+	private Result run(int run, long seed, long maxWork, ProgressListener progress, EmbeddingBudget budget) {
+		var random = new Random(seed);
+		var movable = displacement.movable;
+		var workspace = new ReticulateDisplacement.Workspace(displacement.nodes.length);
+
+		var order = ReticulateDisplacement.copy(displacement.children, null);
+		if (run > 0) {
+			for (var v : movable) {
+				shuffle(order[v], random);
+			}
+		}
+		displacement.layout(order, 0, 0, workspace);
+		var score = displacement.displacement(0, workspace);
+		var bestScore = score;
+		var bestOrder = ReticulateDisplacement.copy(order, null);
+
+		var steps = Math.max(1L, Math.min(STEPS_PER_NODE * (long) movable.length, MAX_STEPS_PER_RUN));
+		// a step rescores the nodes below a random movable node, so the expected work of a step is their average number:
+		var averageSize = Math.max(1L, IntStream.of(movable).mapToLong(v -> displacement.size[v]).sum() / movable.length);
+		steps = Math.max(1L, Math.min(steps, maxWork / averageSize));
+		// the first run refines the current embedding, the others explore from far away:
+		var temperature = (run == 0 ? 1.0 : Math.max(1.0, (double) score / displacement.reticulateSources.length));
+		var cooling = Math.pow(0.001, 1.0 / steps);
+
+		for (var step = 0L; step < steps && bestScore > 0; step++) {
+			if ((step & 255L) == 0 && ReticulateDisplacement.mustStop(progress, budget))
+				break;
+			var v = movable[random.nextInt(movable.length)];
+			var list = order[v];
+			var i = random.nextInt(list.length);
+			var j = random.nextInt(list.length - 1);
+			if (j >= i)
+				j++;
+			var before = displacement.displacement(v, workspace);
+			swap(list, i, j);
+			displacement.layout(order, v, workspace.first[v], workspace);
+			var delta = displacement.displacement(v, workspace) - before;
+			if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+				score += delta;
+				if (score < bestScore) {
+					bestScore = score;
+					ReticulateDisplacement.copy(order, bestOrder);
+				}
+			} else {
+				swap(list, i, j);
+				displacement.layout(order, v, workspace.first[v], workspace);
+			}
+			temperature *= cooling;
+		}
+		return new Result(run, bestScore, bestOrder);
+	}
+
+	private static void shuffle(int[] array, Random random) {
+		for (var i = array.length - 1; i > 0; i--) {
+			swap(array, i, random.nextInt(i + 1));
+		}
+	}
+
+	static void swap(int[] array, int i, int j) {
+		var tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+	/**
+	 * the best embedding found by a run
+	 */
+	private static final class Result {
+		private final int run;
+		private final long score;
+		private final int[][] order;
+
+		private Result(int run, long score, int[][] order) {
+			this.run = run;
+			this.score = score;
+			this.order = order;
+		}
+
+		private boolean isBetterThan(Result other) {
+			return score < other.score || (score == other.score && run < other.run);
+		}
+	}
+}
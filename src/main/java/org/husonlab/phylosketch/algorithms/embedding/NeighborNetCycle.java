@@ -23,14 +23,20 @@ import jloda.util.CanceledException;
 import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressSilent;
 
-import java.util.Arrays;
 import java.util.Stack;
+import java.util.stream.IntStream;
 
 /**
  * compute the neighbor-net cycle
  * David Bryant and Daniel Huson, 2005
  */
 public class NeighborNetCycle {
+	/**
+	 * minimum number of clusters for which the sums and the pair minimization are computed in parallel. The result does
+	 * not depend on whether they are
+	 */
+	public static final int PARALLEL_THRESHOLD = 512;
+
 	/**
 	 * Run the neighbor net algorithm to compute the circular ordering of the taxa
 	 */
@@ -46,6 +52,39 @@ public class NeighborNetCycle {
 	 * Run the neighbor net algorithm to compute the circular ordering of the taxa
 	 */
 	public static int[] compute(ProgressListener progress, int nTax, double[][] dist) throws CanceledException {
+		return compute(progress, nTax, setupMatrix(nTax, dist));
+	}
+
+	/**
+	 * Run the neighbor net algorithm to compute the circular ordering of the taxa
+	 */
+	public static int[] compute(int nTax, DistanceMatrix dist) {
+		try {
+			return compute(new ProgressSilent(), nTax, dist);
+		} catch (CanceledException ignored) {
+			return new int[0]; // can't happen
+		}
+	}
+
+	/**
+	 * Run the neighbor net algorithm to compute the circular ordering of the taxa
+	 *
+	 * @param nTax number of taxa
+	 * @param mat  distances between taxa 1..nTax. This matrix is used as working space and is overwritten
+	 */
+	public static int[] compute(ProgressListener progress, int nTax, DistanceMatrix mat) throws CanceledException {
+		return compute(progress, EmbeddingBudget.UNLIMITED, nTax, mat);
+	}
+
+	/**
+	 * Run the neighbor net algorithm to compute the circular ordering of the taxa
+	 *
+	 * @param budget time budget, checked once per join and expansion
+	 * @param nTax   number of taxa
+	 * @param mat    distances between taxa 1..nTax. This matrix is used as working space and is overwritten
+	 * @throws CanceledException if canceled or the budget has been used up
+	 */
+	public static int[] compute(ProgressListener progress, EmbeddingBudget budget, int nTax, DistanceMatrix mat) throws CanceledException {
 		//Special cases. When nTax<=3, the default circular ordering will work.
 		if (nTax <= 3) {
 			int[] cycle = new int[nTax + 1];
@@ -54,8 +93,6 @@ public class NeighborNetCycle {
 			return cycle;
 		}
 
-		final double[][] mat = setupMatrix(nTax, dist);
-
 		final NetNode nodesHeader = new NetNode(0);
 
 		/* Nodes are stored in a doubly linked list that we set up here */
@@ -71,11 +108,11 @@ public class NeighborNetCycle {
 
 		/* Perform the agglomeration step */
 		progress.setTasks("NNet", "agglomeration");
-		final Stack<NetNode> joins = joinNodes(progress, mat, nodesHeader, nTax);
+		final Stack<NetNode> joins = joinNodes(progress, budget, mat, nodesHeader, nTax);
 		progress.setTasks("NNet", "expansion");
 		// System.err.println("Ordering: "+ Basic.toString(ordering));
 
-		return expandNodes(progress, nTax, joins, nodesHeader);
+		return expandNodes(progress, budget, nTax, joins, nodesHeader);
 	}
 
 	/**
@@ -90,29 +127,26 @@ public class NeighborNetCycle {
 	}
 
 	/**
-	 * Sets up the working matrix. The original distance matrix is enlarged to
-	 * handle the maximum number of nodes
+	 * Sets up the working matrix. New nodes reuse the rows of the nodes that they replace,
+	 * so one row per taxon suffices. The distances are assumed to be symmetric.
 	 *
 	 * @param dist Distance block 0-based
 	 * @return a working matrix of appropriate cardinality 1-based
 	 */
-	private static double[][] setupMatrix(int nTax, double[][] dist) {
-		int max_num_nodes = 3 * nTax - 5;
-		double[][] mat = new double[max_num_nodes][max_num_nodes];
+	private static DistanceMatrix setupMatrix(int nTax, double[][] dist) {
+		var mat = new PackedDistanceMatrix(nTax + 1);
 		/* Copy the distance matrix into a larger, scratch distance matrix */
 		for (int i = 1; i <= nTax; i++) {
-			System.arraycopy(dist[i - 1], 0, mat[i], 1, nTax);
-			Arrays.fill(mat[i], nTax + 1, max_num_nodes, 0.0);
+			for (int j = 1; j <= i; j++)
+				mat.set(i, j, dist[i - 1][j - 1]);
 		}
-		for (int i = nTax + 1; i < max_num_nodes; i++)
-			Arrays.fill(mat[i], 0, max_num_nodes, 0.0);
 		return mat;
 	}
 
 	/**
 	 * Agglomerates the nodes
 	 */
-	static private Stack<NetNode> joinNodes(ProgressListener progress, double[][] D, NetNode nodesHead, int num_nodes) throws CanceledException {
+	static private Stack<NetNode> joinNodes(ProgressListener progress, EmbeddingBudget budget, DistanceMatrix D, NetNode nodesHead, int num_nodes) throws CanceledException {
 		final Stack<NetNode> joins = new Stack<>();
 
 		//System.err.println("joinNodes");
@@ -122,7 +156,9 @@ public class NeighborNetCycle {
 		int num_active = num_nodes;
 		int num_clusters = num_nodes;
 		int m;
-		double Dpq;
+
+		progress.setMaximum(num_nodes);
+		progress.setProgress(0);
 
 		while (num_active > 3) {
 
@@ -135,7 +171,7 @@ public class NeighborNetCycle {
 					q = p.next;
 				else
 					q = p.next.next;
-				if (D[p.id][q.id] + D[p.nbr.id][q.nbr.id] < D[p.id][q.nbr.id] + D[p.nbr.id][q.id]) {
+				if (D.get(p.slot, q.slot) + D.get(p.nbr.slot, q.nbr.slot) < D.get(p.slot, q.nbr.slot) + D.get(p.nbr.slot, q.slot)) {
 					join3way(p, q, q.nbr, joins, D, nodesHead, num_nodes);
 				} else {
 					join3way(p, q.nbr, q, joins, D, nodesHead, num_nodes);
@@ -143,72 +179,32 @@ public class NeighborNetCycle {
 				break;
 			}
 
-            /* Compute the "averaged" sums s_i from each cluster to every other cluster.
-
-            todo: 2x speedup by using symmetry */
-
-			for (NetNode p = nodesHead.next; p != null; p = p.next)
-				p.Sx = 0.0;
-			for (NetNode p = nodesHead.next; p != null; p = p.next) {
-				if (p.nbr == null || p.nbr.id > p.id) {
-					for (NetNode q = p.next; q != null; q = q.next) {
-						if (q.nbr == null || (q.nbr.id > q.id) && (q.nbr != p)) {
-							if ((p.nbr == null) && (q.nbr == null))
-								Dpq = D[p.id][q.id];
-							else if ((p.nbr != null) && (q.nbr == null))
-								Dpq = (D[p.id][q.id] + D[p.nbr.id][q.id]) / 2.0;
-							else if ((p.nbr == null)) //  && (q.nbr != null))
-								Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id]) / 2.0;
-							else
-								Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id] + D[p.nbr.id][q.id] + D[p.nbr.id][q.nbr.id]) / 4.0;
-
-							p.Sx += Dpq;
-							if (p.nbr != null)
-								p.nbr.Sx += Dpq;
-							q.Sx += Dpq;
-							if (q.nbr != null)
-								q.nbr.Sx += Dpq;
-						}
-					}
-					progress.checkForCancel();
+			/* One node per cluster, in the order of the list of active nodes */
+			final var clusters = new NetNode[num_clusters];
+			{
+				var k = 0;
+				for (NetNode p = nodesHead.next; p != null; p = p.next) {
+					if (p.nbr == null || p.nbr.id > p.id)
+						clusters[k++] = p;
 				}
+				if (k != num_clusters)
+					throw new RuntimeException("Internal error");
 			}
 
-			NetNode Cx = null;
-			NetNode Cy = null;
+			/* Compute the "averaged" sums s_i from each cluster to every other cluster. */
+			final var useParallel = (num_clusters >= PARALLEL_THRESHOLD);
+
+			computeSx(clusters, D, useParallel);
+			progress.setProgress(num_nodes - num_active);
+			progress.checkForCancel();
+			budget.checkExpired();
 
 			/* Now minimize (m-2) D[C_i,C_k] - Sx - Sy */
-			best = 0;
-			for (NetNode p = nodesHead.next; p != null; p = p.next) {
-				if ((p.nbr != null) && (p.nbr.id < p.id)) /* We only evaluate one node per cluster */
-					continue;
-				for (NetNode q = nodesHead.next; q != p; q = q.next) {
-					if ((q.nbr != null) && (q.nbr.id < q.id)) /* We only evaluate one node per cluster */
-						continue;
-					if (q.nbr == p) /* We only evaluate nodes in different clusters */
-						continue;
-					if ((p.nbr == null) && (q.nbr == null))
-						Dpq = D[p.id][q.id];
-					else if ((p.nbr != null) && (q.nbr == null))
-						Dpq = (D[p.id][q.id] + D[p.nbr.id][q.id]) / 2.0;
-					else if ((p.nbr == null)) // && (q.nbr != null))
-						Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id]) / 2.0;
-					else
-						Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id] + D[p.nbr.id][q.id] + D[p.nbr.id][q.nbr.id]) / 4.0;
-					Qpq = ((double) num_clusters - 2.0) * Dpq - p.Sx - q.Sx;
-
-					//System.out.println("\t"+"["+p.id+","+q.id+"] \t = \t "+Qpq);
-
-					/* Check if this is the best so far */
-					if ((Cx == null || (Qpq < best)) && (p.nbr != q)) {
-						Cx = p;
-						Cy = q;
-						best = Qpq;
-					}
-				}
-			}
-			if (Cx == null || Cy == null)
+			final var pair = (useParallel ? findBestPairParallel(clusters, D, num_clusters) : findBestPair(clusters, D, num_clusters, 0, clusters.length));
+			if (pair.p == -1)
 				throw new RuntimeException("Internal error");
+			NetNode Cx = clusters[pair.p];
+			NetNode Cy = clusters[pair.q];
 
 			/* Find the node in each cluster */
 			NetNode x = Cx;
@@ -229,9 +225,9 @@ public class NeighborNetCycle {
 			if (Cy.nbr != null)
 				m++;
 
-			best = ((double) m - 2.0) * D[Cx.id][Cy.id] - Cx.Rx - Cy.Rx;
+			best = ((double) m - 2.0) * D.get(Cx.slot, Cy.slot) - Cx.Rx - Cy.Rx;
 			if (Cx.nbr != null) {
-				Qpq = ((double) m - 2.0) * D[Cx.nbr.id][Cy.id] - Cx.nbr.Rx - Cy.Rx;
+				Qpq = ((double) m - 2.0) * D.get(Cx.nbr.slot, Cy.slot) - Cx.nbr.Rx - Cy.Rx;
 				if (Qpq < best) {
 					x = Cx.nbr;
 					y = Cy;
@@ -239,7 +235,7 @@ public class NeighborNetCycle {
 				}
 			}
 			if (Cy.nbr != null) {
-				Qpq = ((double) m - 2.0) * D[Cx.id][Cy.nbr.id] - Cx.Rx - Cy.nbr.Rx;
+				Qpq = ((double) m - 2.0) * D.get(Cx.slot, Cy.nbr.slot) - Cx.Rx - Cy.nbr.Rx;
 				if (Qpq < best) {
 					x = Cx;
 					y = Cy.nbr;
@@ -247,7 +243,7 @@ public class NeighborNetCycle {
 				}
 			}
 			if ((Cx.nbr != null) && (Cy.nbr != null)) {
-				Qpq = ((double) m - 2.0) * D[Cx.nbr.id][Cy.nbr.id] - Cx.nbr.Rx - Cy.nbr.Rx;
+				Qpq = ((double) m - 2.0) * D.get(Cx.nbr.slot, Cy.nbr.slot) - Cx.nbr.Rx - Cy.nbr.Rx;
 				if (Qpq < best) {
 					x = Cx.nbr;
 					y = Cy.nbr;
@@ -281,6 +277,109 @@ public class NeighborNetCycle {
 		return joins;
 	}
 
+	/**
+	 * computes the averaged sum Sx from each cluster to every other cluster and assigns it to both nodes of the cluster.
+	 * The distances between two clusters are always computed with the earlier cluster first and summed in the order of the clusters,
+	 * so the serial symmetric pass and the parallel per-cluster pass give identical results.
+	 */
+	private static void computeSx(NetNode[] clusters, DistanceMatrix D, boolean useParallel) {
+		final var sx = new double[clusters.length];
+
+		if (useParallel) {
+			IntStream.range(0, clusters.length).parallel().forEach(i -> {
+				var sum = 0.0;
+				for (var j = 0; j < clusters.length; j++) {
+					if (j < i)
+						sum += clusterDistance(clusters[j], clusters[i], D);
+					else if (j > i)
+						sum += clusterDistance(clusters[i], clusters[j], D);
+				}
+				sx[i] = sum;
+			});
+		} else {
+			for (var i = 0; i < clusters.length; i++) {
+				for (var j = i + 1; j < clusters.length; j++) {
+					var Dpq = clusterDistance(clusters[i], clusters[j], D);
+					sx[i] += Dpq;
+					sx[j] += Dpq;
+				}
+			}
+		}
+
+		for (var i = 0; i < clusters.length; i++) {
+			clusters[i].Sx = sx[i];
+			if (clusters[i].nbr != null)
+				clusters[i].nbr.Sx = sx[i];
+		}
+	}
+
+	/**
+	 * the averaged distance between two clusters, each given by one of its nodes
+	 */
+	private static double clusterDistance(NetNode p, NetNode q, DistanceMatrix D) {
+		if ((p.nbr == null) && (q.nbr == null))
+			return D.get(p.slot, q.slot);
+		else if (q.nbr == null)
+			return (D.get(p.slot, q.slot) + D.get(p.nbr.slot, q.slot)) / 2.0;
+		else if (p.nbr == null)
+			return (D.get(p.slot, q.slot) + D.get(p.slot, q.nbr.slot)) / 2.0;
+		else
+			return (D.get(p.slot, q.slot) + D.get(p.slot, q.nbr.slot) + D.get(p.nbr.slot, q.slot) + D.get(p.nbr.slot, q.nbr.slot)) / 4.0;
+	}
+
+	/**
+	 * finds the pair of clusters p&gt;q that minimizes the Q-criterion, considering rows p in the range [fromRow,toRow).
+	 * In case of ties, the first pair encountered is used.
+	 *
+	 * @return the best pair, or a pair with p=-1, if the range is empty or all values are NaN
+	 */
+	private static BestPair findBestPair(NetNode[] clusters, DistanceMatrix D, int num_clusters, int fromRow, int toRow) {
+		final var result = new BestPair();
+		for (var p = fromRow; p < toRow; p++) {
+			for (var q = 0; q < p; q++) {
+				var Qpq = ((double) num_clusters - 2.0) * clusterDistance(clusters[p], clusters[q], D) - clusters[p].Sx - clusters[q].Sx;
+				/* Check if this is the best so far. A NaN is only used if it is the very first value (as in the serial algorithm) */
+				if ((result.p == -1 && (fromRow <= 1 || !Double.isNaN(Qpq))) || Qpq < result.value) {
+					result.p = p;
+					result.q = q;
+					result.value = Qpq;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * finds the pair of clusters that minimizes the Q-criterion, processing blocks of rows in parallel. Each block holds
+	 * about the same number of pairs. The results of the blocks are combined in order, keeping the first of equal values,
+	 * so the result is the same as for the serial search.
+	 */
+	private static BestPair findBestPairParallel(NetNode[] clusters, DistanceMatrix D, int num_clusters) {
+		final var numberOfBlocks = Math.min(clusters.length, 4 * Runtime.getRuntime().availableProcessors());
+		final var bounds = new int[numberOfBlocks + 1];
+		for (var b = 1; b <= numberOfBlocks; b++) {
+			bounds[b] = (int) Math.round(clusters.length * Math.sqrt((double) b / numberOfBlocks));
+		}
+		final var results = new BestPair[numberOfBlocks];
+		IntStream.range(0, numberOfBlocks).parallel().forEach(b -> results[b] = findBestPair(clusters, D, num_clusters, bounds[b], bounds[b + 1]));
+
+		var best = results[0];
+		for (var b = 1; b < numberOfBlocks; b++) {
+			if (results[b].p != -1 && (best.p == -1 || results[b].value < best.value))
+				best = results[b];
+		}
+		return best;
+	}
+
+	/**
+	 * a pair of clusters, given by their indices, and its value
+	 */
+	private static class BestPair {
+		int p = -1;
+		int q = -1;
+		double value = 0;
+	}
+
 	/**
 	 * agglomerate 2 nodes
 	 *
@@ -303,7 +402,7 @@ public class NeighborNetCycle {
 	 * @param z other node
 	 * @return one of the new nodes
 	 */
-	static private NetNode join3way(NetNode x, NetNode y, NetNode z, Stack<NetNode> joins, double[][] mat, NetNode nodesHead, int num_nodes) {
+	static private NetNode join3way(NetNode x, NetNode y, NetNode z, Stack<NetNode> joins, DistanceMatrix mat, NetNode nodesHead, int num_nodes) {
 		/* Agglomerate x,y, and z to give TWO new nodes, u and v */
 /* In terms of the linked list: we replace x and z
        by u and v and remove y from the linked list.
@@ -311,11 +410,11 @@ public class NeighborNetCycle {
     Returns a pointer to the node u */
 //printf("Three way: %d, %d, and %d\n",x.id,y.id,z.id);
 
-		NetNode u = new NetNode(num_nodes + 1);
+		NetNode u = new NetNode(num_nodes + 1, x.slot);
 		u.ch1 = x;
 		u.ch2 = y;
 
-		NetNode v = new NetNode(num_nodes + 2);
+		NetNode v = new NetNode(num_nodes + 2, z.slot);
 		v.ch1 = y;
 		v.ch2 = z;
 
@@ -345,13 +444,17 @@ public class NeighborNetCycle {
 		u.nbr = v;
 		v.nbr = u;
 
-		/* Update distance matrix */
+		/* Update distance matrix. The rows of u and v are the rows of x and z, which are overwritten column by column */
 
 		for (NetNode p = nodesHead.next; p != null; p = p.next) {
-			mat[u.id][p.id] = mat[p.id][u.id] = (2.0 / 3.0) * mat[x.id][p.id] + mat[y.id][p.id] / 3.0;
-			mat[v.id][p.id] = mat[p.id][v.id] = (2.0 / 3.0) * mat[z.id][p.id] + mat[y.id][p.id] / 3.0;
+			if (p != u && p != v) {
+				mat.set(u.slot, p.slot, (2.0 / 3.0) * mat.get(x.slot, p.slot) + mat.get(y.slot, p.slot) / 3.0);
+				mat.set(v.slot, p.slot, (2.0 / 3.0) * mat.get(z.slot, p.slot) + mat.get(y.slot, p.slot) / 3.0);
+			}
 		}
-		mat[u.id][u.id] = mat[v.id][v.id] = 0.0;
+		mat.set(u.slot, u.slot, 0.0);
+		mat.set(v.slot, v.slot, 0.0);
+		mat.set(u.slot, v.slot, 0.0);
 		//System.err.println("Agg 3way\t("+x.id+", "+y.id+", "+z.id+")->("+u.id+", "+v.id+")");
 
 		joins.push(u);
@@ -368,7 +471,7 @@ public class NeighborNetCycle {
 	 * @param y2 a node
 	 * @return the new number of nodes
 	 */
-	static private int join4way(NetNode x2, NetNode x, NetNode y, NetNode y2, Stack<NetNode> joins, double[][] mat, NetNode nodesHead, int num_nodes) {
+	static private int join4way(NetNode x2, NetNode x, NetNode y, NetNode y2, Stack<NetNode> joins, DistanceMatrix mat, NetNode nodesHead, int num_nodes) {
 /* Replace x2,x,y,y2 by with two vertices... performed using two
        3 way amalgamations */
 
@@ -390,14 +493,14 @@ public class NeighborNetCycle {
 	 * @param nodesHead the net nodes
 	 * @return the Rx value
 	 */
-	static private double ComputeRx(NetNode z, NetNode Cx, NetNode Cy, double[][] mat, NetNode nodesHead) {
+	static private double ComputeRx(NetNode z, NetNode Cx, NetNode Cy, DistanceMatrix mat, NetNode nodesHead) {
 		double Rx = 0.0;
 
 		for (NetNode p = nodesHead.next; p != null; p = p.next) {
 			if (p == Cx || p == Cx.nbr || p == Cy || p == Cy.nbr || p.nbr == null)
-				Rx += mat[z.id][p.id];
+				Rx += mat.get(z.slot, p.slot);
 			else /* p.nbr != null */
-				Rx += mat[z.id][p.id] / 2.0; /* We take the average of the distances */
+				Rx += mat.get(z.slot, p.slot) / 2.0; /* We take the average of the distances */
 		}
 		return Rx;
 	}
@@ -409,7 +512,7 @@ public class NeighborNetCycle {
 	 * @param joins     stack of joins
 	 * @param nodesHead the net nodes
 	 */
-	static private int[] expandNodes(ProgressListener progress, int nTax, Stack<NetNode> joins, NetNode nodesHead) throws CanceledException {
+	static private int[] expandNodes(ProgressListener progress, EmbeddingBudget budget, int nTax, Stack<NetNode> joins, NetNode nodesHead) throws CanceledException {
 		//System.err.println("expandNodes");
 
 		/* Set up the circular order for the first three nodes */
@@ -449,6 +552,7 @@ public class NeighborNetCycle {
 			z.next = v.next;
 			z.next.prev = z;
 			progress.checkForCancel();
+			budget.checkExpired();
 		}
 
 		/* When we exit, we know that the point x points to a node in the circular order */
@@ -27,6 +27,7 @@ import java.util.Objects;
  */
 class NetNode {
 	final int id;
+	final int slot; // row and column of this node in the distance matrix
 	NetNode nbr = null; // adjacent node
 	NetNode ch1 = null; // first child
 	NetNode ch2 = null; // second child
@@ -36,7 +37,12 @@ class NetNode {
 	double Sx = 0;
 
 	NetNode(int id) {
+		this(id, id);
+	}
+
+	NetNode(int id, int slot) {
 		this.id = id;
+		this.slot = slot;
 	}
 
 	@Override
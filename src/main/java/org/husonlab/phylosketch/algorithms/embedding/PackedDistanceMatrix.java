@@ -0,0 +1,68 @@
+/*
+ *  PackedDistanceMatrix.java Copyright (C) 2022 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+/**
+ * symmetric distance matrix, stored as a packed triangular array (including the diagonal)
+ * <p/>
+ * Uses about half the memory of a double[][] and keeps all entries in one contiguous array.
+ */
+public class PackedDistanceMatrix implements DistanceMatrix {
+	private final int size;
+	private final double[] values;
+
+	/**
+	 * constructor. All entries are 0.
+	 *
+	 * @param size number of rows and columns
+	 */
+	public PackedDistanceMatrix(int size) {
+		var length = (long) size * (size + 1) / 2;
+		if (length > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Distance matrix too large: " + size);
+		this.size = size;
+		this.values = new double[(int) length];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		return values[index(i, j)];
+	}
+
+	/**
+	 * sets the distance between i and j, and thus also between j and i
+	 */
+	@Override
+	public void set(int i, int j, double value) {
+		values[index(i, j)] = value;
+	}
+
+	private static int index(int i, int j) {
+		if (i >= j)
+			return (int) ((long) i * (i + 1) / 2 + j);
+		else
+			return (int) ((long) j * (j + 1) / 2 + i);
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * RectangularLayout.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import javafx.geometry.Point2D;
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import org.husonlab.phylosketch.algorithms.Traversals;
+
+import java.util.Arrays;
+
+/**
+ * computes the rectangular layout of a rooted tree or network into arrays of coordinates, indexed by node id
+ * <p/>
+ * This is also the kernel of {@link HeightAndAngles}. The y-coordinates are computed in one traversal of the LSA tree
+ * and the x-coordinates in one traversal of the network, after which the coordinates are fitted to the given width and
+ * height in a single pass. All other work is done on primitive arrays, so that the number of objects allocated does not
+ * grow with the number of nodes, apart from the iterators used by the two traversals.
+ */
+public class RectangularLayout {
+	private final double[] x;
+	private final double[] y;
+	private final boolean[] placed;
+
+	private RectangularLayout(int size) {
+		x = new double[size];
+		y = new double[size];
+		placed = new boolean[size];
+	}
+
+	/**
+	 * computes the rectangular layout of a tree or network
+	 *
+	 * @param tree      the tree or network, with LSA children map set up
+	 * @param toScale   use edge weights for the x-coordinates, otherwise the x-coordinate of a node is minus the length of the longest path from it to a leaf
+	 * @param averaging how to compute the y-coordinates of internal nodes
+	 * @param fitWidth  if positive, the x-coordinates are scaled to range from 0 to this
+	 * @param fitHeight if positive, the y-coordinates are scaled to range from 0 to this
+	 * @return the layout
+	 */
+	public static RectangularLayout apply(PhyloTree tree, boolean toScale, HeightAndAngles.Averaging averaging, double fitWidth, double fitHeight) {
+		var layout = new RectangularLayout(size(tree));
+		var root = tree.getRoot();
+		if (root == null)
+			return layout;
+
+		computeHeights(tree, root, averaging, layout.y);
+
+		// nodes of the network in post-order, each node is visited once:
+		var placed = layout.placed;
+		var nodes = new Node[tree.getNumberOfNodes()];
+		var count = new int[]{0};
+		Traversals.traverse(root, Node::children, v -> !placed[v.getId()], v -> placed[v.getId()] = true, v -> nodes[count[0]++] = v);
+
+		var x = layout.x;
+		var y = layout.y;
+		if (toScale) {
+			// todo: this could be a user option:
+			var percentOffset = 50.0;
+			var averageWeight = tree.edgeStream().mapToDouble(tree::getWeight).average().orElse(1);
+			var smallOffsetForReticulateEdge = (percentOffset / 100.0) * averageWeight;
+
+			// reverse post-order visits all parents of a node before the node:
+			for (var i = count[0] - 1; i >= 0; i--) {
+				var v = nodes[i];
+				if (v.getInDegree() == 1) {
+					var e = v.getFirstInEdge();
+					x[v.getId()] = x[e.getSource().getId()] + tree.getWeight(e);
+				} else if (v.getInDegree() > 1) {
+					var max = Double.NEGATIVE_INFINITY;
+					for (var e : v.inEdges()) {
+						if (placed[e.getSource().getId()])
+							max = Math.max(max, x[e.getSource().getId()]);
+					}
+					x[v.getId()] = (max > Double.NEGATIVE_INFINITY ? max + smallOffsetForReticulateEdge : 0);
+				} else
+					x[v.getId()] = 0;
+			}
+		} else {
+			// minus the length of the longest path from the node to a leaf:
+			for (var i = 0; i < count[0]; i++) {
+				var v = nodes[i];
+				var min = 0.0;
+				for (var e : v.outEdges()) {
+					min = Math.min(min, x[e.getTarget().getId()] - 1);
+				}
+				x[v.getId()] = min;
+			}
+		}
+
+		// fit:
+		var minX = Double.MAX_VALUE;
+		var maxX = -Double.MAX_VALUE;
+		var minY = Double.MAX_VALUE;
+		var maxY = -Double.MAX_VALUE;
+		for (var i = 0; i < count[0]; i++) {
+			var id = nodes[i].getId();
+			minX = Math.min(minX, x[id]);
+			maxX = Math.max(maxX, x[id]);
+			minY = Math.min(minY, y[id]);
+			maxY = Math.max(maxY, y[id]);
+		}
+		var diffX = (maxX - minX > 0 ? maxX - minX : 1.0);
+		var diffY = (maxY - minY > 0 ? maxY - minY : 1.0);
+		for (var i = 0; i < count[0]; i++) {
+			var id = nodes[i].getId();
+			if (fitWidth > 0)
+				x[id] = (x[id] - minX) / diffX * fitWidth;
+			if (fitHeight > 0)
+				y[id] = (y[id] - minY) / diffY * fitHeight;
+		}
+		return layout;
+	}
+
+	/**
+	 * computes the y-coordinates of all nodes below and including the root in the LSA tree
+	 *
+	 * @param y the y-coordinates, indexed by node id
+	 * @return the nodes below and including the root in LSA pre-order
+	 */
+	static Node[] computeHeights(PhyloTree tree, Node root, HeightAndAngles.Averaging averaging, double[] y) {
+		var nodes = new Node[tree.getNumberOfNodes()];
+		var count = new int[]{0};
+		Traversals.preOrderLSA(tree, root, v -> nodes[count[0]++] = v);
+
+		// the leaves of the LSA tree are numbered in pre-order:
+		var leaves = new int[count[0]];
+		var numberOfLeaves = 0;
+		for (var i = 0; i < count[0]; i++) {
+			var v = nodes[i];
+			if (v.isLeaf() || tree.isLsaLeaf(v)) {
+				leaves[numberOfLeaves++] = i;
+				y[v.getId()] = numberOfLeaves;
+			}
+		}
+		if (tree.getNumberReticulateEdges() > 0)
+			fixSpacing(nodes, leaves, numberOfLeaves, y);
+
+		// reverse pre-order visits all LSA children of a node before the node:
+		if (averaging == HeightAndAngles.Averaging.ChildAverage) {
+			for (var i = count[0] - 1; i >= 0; i--) {
+				var v = nodes[i];
+				if (!(v.isLeaf() || tree.isLsaLeaf(v)))
+					y[v.getId()] = 0.5 * (y[tree.getLastChildLSA(v).getId()] + y[tree.getFirstChildLSA(v).getId()]);
+			}
+		} else {
+			var min = new double[y.length];
+			var max = new double[y.length];
+			for (var i = count[0] - 1; i >= 0; i--) {
+				var v = nodes[i];
+				var id = v.getId();
+				if (v.isLeaf() || tree.isLsaLeaf(v)) {
+					min[id] = y[id];
+					max[id] = y[id];
+				} else {
+					min[id] = min[tree.getFirstChildLSA(v).getId()];
+					max[id] = max[tree.getLastChildLSA(v).getId()];
+					y[id] = 0.5 * (min[id] + max[id]);
+				}
+			}
+		}
+		return (count[0] == nodes.length ? nodes : Arrays.copyOf(nodes, count[0]));
+	}
+
+	/**
+	 * fix spacing so that space between any two true leaves is 1
+	 *
+	 * @param leaves the positions of the leaves of the LSA tree in the pre-order
+	 */
+	private static void fixSpacing(Node[] nodes, int[] leaves, int numberOfLeaves, double[] y) {
+		double leafPos = 0;
+		for (int lastLeaf = -1; lastLeaf < numberOfLeaves; ) {
+			int nextLeaf = lastLeaf + 1;
+			while (nextLeaf < numberOfLeaves && nodes[leaves[nextLeaf]].getOutDegree() != 0)
+				nextLeaf++;
+			// assign fractional positions to intermediate nodes
+			int count = (nextLeaf - lastLeaf) - 1;
+			if (count > 0) {
+				double add = 1.0 / (count + 1);
+				double value = leafPos;
+				for (int i = lastLeaf + 1; i < nextLeaf; i++) {
+					value += add;
+					y[nodes[leaves[i]].getId()] = value;
+				}
+			}
+			// assign whole positions to actual leaves:
+			if (nextLeaf < numberOfLeaves) {
+				y[nodes[leaves[nextLeaf]].getId()] = ++leafPos;
+			}
+			lastLeaf = nextLeaf;
+		}
+	}
+
+	/**
+	 * the size of arrays indexed by node id
+	 */
+	static int size(PhyloTree tree) {
+		var max = 0;
+		for (var v : tree.nodes()) {
+			max = Math.max(max, v.getId());
+		}
+		return max + 1;
+	}
+
+	/**
+	 * has the node been placed?
+	 */
+	public boolean isPlaced(Node v) {
+		return v.getId() < placed.length && placed[v.getId()];
+	}
+
+	/**
+	 * gets the x-coordinate of a node, or 0, if the node has not been placed
+	 */
+	public double getX(Node v) {
+		return (isPlaced(v) ? x[v.getId()] : 0);
+	}
+
+	/**
+	 * gets the y-coordinate of a node, or 0, if the node has not been placed
+	 */
+	public double getY(Node v) {
+		return (isPlaced(v) ? y[v.getId()] : 0);
+	}
+
+	/**
+	 * gets the location of a node, for callers that use points
+	 *
+	 * @return the location, or null, if the node has not been placed
+	 */
+	public Point2D getPoint(Node v) {
+		return (isPlaced(v) ? new Point2D(x[v.getId()], y[v.getId()]) : null);
+	}
+}
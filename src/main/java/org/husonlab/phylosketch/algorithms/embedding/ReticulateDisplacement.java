@@ -0,0 +1,260 @@
+/*
+ * ReticulateDisplacement.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import jloda.util.CanceledException;
+import jloda.util.progress.ProgressListener;
+import org.husonlab.phylosketch.algorithms.Traversals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * the LSA tree of a network in arrays, for scoring orders of LSA children by the total displacement of the reticulate edges,
+ * that is, the sum of the vertical distances between the two ends of all reticulate edges in the rectangular layout
+ * <p/>
+ * Nodes are numbered in pre-order of the LSA tree, so the nodes below node i are i..i+size[i]-1, whatever the order of
+ * LSA children. An order of LSA children is given as an array that contains the children of each node.
+ */
+class ReticulateDisplacement {
+	final Node[] nodes;
+	final int[] size;
+	final int[] leaves;
+	final int[][] children;
+	final int[] movable;
+	final int[] reticulateSources;
+	final int[] reticulateTargets;
+	final int[][] reticulateEdges; // the reticulate edges incident to each node
+
+	/**
+	 * constructor
+	 *
+	 * @param tree the network, with LSA children map set up
+	 */
+	ReticulateDisplacement(PhyloTree tree) {
+		var list = new ArrayList<Node>();
+		try (var index = tree.newNodeIntArray()) {
+			Traversals.preOrderLSA(tree, tree.getRoot(), v -> {
+				list.add(v);
+				index.set(v, list.size()); // index+1, so that 0 means not in LSA tree
+			});
+			nodes = list.toArray(new Node[0]);
+
+			size = new int[nodes.length];
+			leaves = new int[nodes.length];
+			children = new int[nodes.length][];
+			var movableList = new ArrayList<Integer>();
+			Traversals.postOrderLSA(tree, tree.getRoot(), v -> {
+				var i = index.getInt(v) - 1;
+				var lsaChildren = new ArrayList<Integer>();
+				size[i] = 1;
+				for (var w : Traversals.lsaChildren(tree, v)) {
+					var j = index.getInt(w) - 1;
+					lsaChildren.add(j);
+					size[i] += size[j];
+					leaves[i] += leaves[j];
+				}
+				if (lsaChildren.isEmpty())
+					leaves[i] = 1;
+				children[i] = lsaChildren.stream().mapToInt(Integer::intValue).toArray();
+			});
+			for (var i = 0; i < nodes.length; i++) {
+				if (children[i].length >= 2)
+					movableList.add(i);
+			}
+			movable = movableList.stream().mapToInt(Integer::intValue).toArray();
+
+			var sources = new ArrayList<Integer>();
+			var targets = new ArrayList<Integer>();
+			for (var e : tree.edges()) {
+				if (tree.isReticulateEdge(e) && !tree.isTransferAcceptorEdge(e) && index.getInt(e.getSource()) > 0 && index.getInt(e.getTarget()) > 0) {
+					sources.add(index.getInt(e.getSource()) - 1);
+					targets.add(index.getInt(e.getTarget()) - 1);
+				}
+			}
+			reticulateSources = sources.stream().mapToInt(Integer::intValue).toArray();
+			reticulateTargets = targets.stream().mapToInt(Integer::intValue).toArray();
+
+			var count = new int[nodes.length];
+			for (var k = 0; k < reticulateSources.length; k++) {
+				count[reticulateSources[k]]++;
+				count[reticulateTargets[k]]++;
+			}
+			reticulateEdges = new int[nodes.length][];
+			for (var i = 0; i < nodes.length; i++) {
+				reticulateEdges[i] = new int[count[i]];
+				count[i] = 0;
+			}
+			for (var k = 0; k < reticulateSources.length; k++) {
+				reticulateEdges[reticulateSources[k]][count[reticulateSources[k]]++] = k;
+				reticulateEdges[reticulateTargets[k]][count[reticulateTargets[k]]++] = k;
+			}
+		}
+	}
+
+	/**
+	 * computes the first and last leaf below each node below and including v, for the given order of LSA children
+	 *
+	 * @param rank the rank of the first leaf below v
+	 */
+	void layout(int[][] order, int v, int rank, Workspace workspace) {
+		var first = workspace.first;
+		var last = workspace.last;
+		var stack = workspace.stack;
+		var next = workspace.next;
+
+		var top = 0;
+		stack[0] = v;
+		next[0] = 0;
+		while (top >= 0) {
+			var u = stack[top];
+			var list = order[u];
+			if (next[top] < list.length) {
+				stack[++top] = list[next[top - 1]++];
+				next[top] = 0;
+			} else {
+				if (list.length == 0) {
+					first[u] = rank;
+					last[u] = rank++;
+				} else {
+					first[u] = first[list[0]];
+					last[u] = last[list[list.length - 1]];
+				}
+				top--;
+			}
+		}
+	}
+
+	/**
+	 * computes the total displacement of all reticulate edges that are incident to some node below and including v, using
+	 * the last layout computed. The position of a node is the midpoint between its first and last leaf, as in the rectangular
+	 * layout, and is kept doubled, to stay integral
+	 */
+	long displacement(int v, Workspace workspace) {
+		var first = workspace.first;
+		var last = workspace.last;
+		var end = v + size[v];
+		var sum = 0L;
+		for (var x = v; x < end; x++) {
+			for (var k : reticulateEdges[x]) {
+				var s = reticulateSources[k];
+				var t = reticulateTargets[k];
+				if (s == x || s < v || s >= end) // count edges with both ends below v only once
+					sum += Math.abs(first[s] + last[s] - first[t] - last[t]);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * computes the total displacement of all reticulate edges for the given order of LSA children
+	 */
+	long displacement(int[][] order) {
+		var workspace = new Workspace(nodes.length);
+		layout(order, 0, 0, workspace);
+		return displacement(0, workspace);
+	}
+
+	/**
+	 * sets the LSA children of all nodes of the tree to the given order and sorts the out-edges of each node by the first leaf below the target
+	 */
+	void apply(PhyloTree tree, int[][] order) {
+		var workspace = new Workspace(nodes.length);
+		layout(order, 0, 0, workspace);
+		try (var first = tree.newNodeIntArray()) {
+			for (var i = 0; i < nodes.length; i++) {
+				first.set(nodes[i], workspace.first[i]);
+				if (tree.getLSAChildrenMap().get(nodes[i]) != null) {
+					var lsaChildren = new ArrayList<Node>(order[i].length);
+					for (var w : order[i]) {
+						lsaChildren.add(nodes[w]);
+					}
+					tree.getLSAChildrenMap().put(nodes[i], lsaChildren);
+				}
+			}
+			for (var v : nodes) {
+				if (v.getOutDegree() > 1) {
+					var edges = new ArrayList<Edge>(v.getDegree());
+					var outEdges = new ArrayList<Edge>(v.getOutDegree());
+					for (var e : v.adjacentEdges()) {
+						if (e.getSource() == v)
+							outEdges.add(e);
+						else
+							edges.add(e);
+					}
+					outEdges.sort(Comparator.comparingInt(e -> first.getInt(e.getTarget())));
+					edges.addAll(outEdges);
+					v.rearrangeAdjacentEdges(edges);
+				}
+			}
+		}
+	}
+
+	/**
+	 * copies an order of LSA children
+	 *
+	 * @param target the order to copy to, or null, to create a new one
+	 */
+	static int[][] copy(int[][] src, int[][] target) {
+		if (target == null)
+			target = new int[src.length][];
+		for (var i = 0; i < src.length; i++) {
+			if (target[i] == null)
+				target[i] = src[i].clone();
+			else
+				System.arraycopy(src[i], 0, target[i], 0, src[i].length);
+		}
+		return target;
+	}
+
+	/**
+	 * determines whether the time budget is used up or the user has canceled
+	 */
+	static boolean mustStop(ProgressListener progress, EmbeddingBudget budget) {
+		if (budget.isExpired())
+			return true;
+		try {
+			progress.checkForCancel();
+			return false;
+		} catch (CanceledException ex) {
+			return true;
+		}
+	}
+
+	/**
+	 * the arrays used to compute a layout, one set per thread
+	 */
+	static final class Workspace {
+		final int[] first;
+		final int[] last;
+		final int[] stack;
+		final int[] next;
+
+		Workspace(int size) {
+			first = new int[size];
+			last = new int[size];
+			stack = new int[size];
+			next = new int[size];
+		}
+	}
+}
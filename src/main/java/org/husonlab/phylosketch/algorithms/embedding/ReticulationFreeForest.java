@@ -0,0 +1,111 @@
+/*
+ * ReticulationFreeForest.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import jloda.util.IteratorUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the forest obtained by removing all reticulate edges from a network: one component for each reticulation, followed by the
+ * component containing the root. Each component is a copy with its own LSA children map.
+ * <p/>
+ * The components are computed once. The embedding optimization only changes the order of LSA children, so
+ * {@link #resetLSAChildren()} restores the forest to its initial state.
+ */
+public class ReticulationFreeForest {
+	private final List<PhyloTree> components = new ArrayList<>();
+	private final List<Map<Node, List<Node>>> initialLSAChildren = new ArrayList<>();
+
+	/**
+	 * constructor
+	 *
+	 * @param tree the network
+	 */
+	public ReticulationFreeForest(PhyloTree tree) {
+		for (var v : tree.nodes()) {
+			if (v.getInDegree() > 1)
+				addComponent(copySubtreeWithoutReticulations(tree, v));
+		}
+		addComponent(copySubtreeWithoutReticulations(tree, tree.getRoot()));
+	}
+
+	private void addComponent(PhyloTree component) {
+		LSATree.computeNodeLSAChildrenMap(component);
+		var children = new HashMap<Node, List<Node>>();
+		for (var v : component.nodes()) {
+			var list = component.getLSAChildrenMap().get(v);
+			if (list != null)
+				children.put(v, new ArrayList<>(list));
+		}
+		components.add(component);
+		initialLSAChildren.add(children);
+	}
+
+	/**
+	 * gets the components, the one containing the root is last
+	 */
+	public List<PhyloTree> getComponents() {
+		return components;
+	}
+
+	/**
+	 * restores the order of LSA children of all components to the order they had when the forest was computed
+	 */
+	public void resetLSAChildren() {
+		for (var i = 0; i < components.size(); i++) {
+			var lsaChildrenMap = components.get(i).getLSAChildrenMap();
+			for (var entry : initialLSAChildren.get(i).entrySet()) {
+				var list = lsaChildrenMap.get(entry.getKey());
+				list.clear();
+				list.addAll(entry.getValue());
+			}
+		}
+	}
+
+	private static PhyloTree copySubtreeWithoutReticulations(PhyloTree src, Node v) {
+		var tar = new PhyloTree();
+		try (var nodes = src.newNodeSet()) {
+			var queue = new LinkedList<Node>();
+			queue.add(v);
+			nodes.add(v);
+			while (queue.size() > 0) {
+				var w = queue.pop();
+				if (w.getInDegree() <= 1 || w == v) {
+					nodes.add(w);
+					queue.addAll(IteratorUtils.asList(w.children()));
+				}
+			}
+			var src2tar = src.extract(nodes, null, tar);
+			tar.setRoot(src2tar.get(v));
+			for (var s : src2tar.keys()) {
+				if (src.getLabel(s) != null)
+					tar.setLabel(src2tar.get(s), src.getLabel(s));
+			}
+		}
+		return tar;
+	}
+}
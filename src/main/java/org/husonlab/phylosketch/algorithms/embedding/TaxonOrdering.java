@@ -0,0 +1,289 @@
+/*
+ * TaxonOrdering.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.husonlab.phylosketch.algorithms.embedding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * an ordering of taxa, represented by their ids, backed by an int array
+ * <p/>
+ * Taxon ids are positive and small, as assigned by the taxon2Id maps used in the embedding code.
+ * The position index (taxon id to position) is set up on first use and then maintained by all modifications.
+ * If a taxon occurs more than once, the position index reports the first occurrence, as does {@link List#indexOf(Object)}.
+ */
+public class TaxonOrdering {
+	private int[] ids;
+	private int size;
+	private int[] position; // taxon id to position, -1 if absent, null if not yet set up
+
+	/**
+	 * constructor
+	 */
+	public TaxonOrdering() {
+		this(16);
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param capacity initial capacity
+	 */
+	public TaxonOrdering(int capacity) {
+		ids = new int[Math.max(1, capacity)];
+	}
+
+	/**
+	 * copy constructor
+	 */
+	public TaxonOrdering(TaxonOrdering that) {
+		ids = Arrays.copyOf(that.ids, Math.max(1, that.size));
+		size = that.size;
+		if (that.position != null)
+			position = that.position.clone();
+	}
+
+	/**
+	 * constructs an ordering from an array of ids
+	 */
+	public static TaxonOrdering valueOf(int[] ids, int from, int to) {
+		var ordering = new TaxonOrdering(to - from);
+		System.arraycopy(ids, from, ordering.ids, 0, to - from);
+		ordering.size = to - from;
+		return ordering;
+	}
+
+	/**
+	 * maps the ordering back to taxon labels
+	 */
+	public ArrayList<String> toLabels(Map<Integer, String> id2Taxon) {
+		var list = new ArrayList<String>(size);
+		for (var i = 0; i < size; i++)
+			list.add(id2Taxon.get(ids[i]));
+		return list;
+	}
+
+	/**
+	 * gets the taxon id for the given label, adding a new id to both maps, if the label is not yet known
+	 */
+	public static int getOrCreateId(String label, Map<String, Integer> taxon2Id, Map<Integer, String> id2Taxon) {
+		var id = taxon2Id.get(label);
+		if (id == null) {
+			id = taxon2Id.size() + 1;
+			while (id2Taxon.containsKey(id))
+				id++;
+			taxon2Id.put(label, id);
+			id2Taxon.put(id, label);
+		}
+		return id;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * gets the taxon id at the given position
+	 */
+	public int get(int index) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException(index);
+		return ids[index];
+	}
+
+	/**
+	 * gets the position of the given taxon
+	 *
+	 * @return position or -1
+	 */
+	public int indexOf(int id) {
+		if (position == null)
+			setupPositions();
+		return (id < position.length ? position[id] : -1);
+	}
+
+	public boolean contains(int id) {
+		return indexOf(id) != -1;
+	}
+
+	/**
+	 * appends a taxon
+	 */
+	public void add(int id) {
+		ensureCapacity(size + 1);
+		ids[size] = id;
+		if (position != null) {
+			ensurePositionCapacity(id);
+			if (position[id] == -1)
+				position[id] = size;
+		}
+		size++;
+	}
+
+	/**
+	 * inserts a taxon at the given position
+	 */
+	public void add(int index, int id) {
+		if (index > size)
+			throw new IndexOutOfBoundsException(index);
+		ensureCapacity(size + 1);
+		System.arraycopy(ids, index, ids, index + 1, size - index);
+		ids[index] = id;
+		size++;
+		if (position != null) {
+			ensurePositionCapacity(id);
+			updatePositions(index);
+		}
+	}
+
+	/**
+	 * overwrites the taxa at the given position and following ones by the given ids
+	 */
+	public void set(int index, int[] ids, int from, int length) {
+		if (index + length > size)
+			throw new IndexOutOfBoundsException(index + length);
+		System.arraycopy(ids, from, this.ids, index, length);
+		position = null;
+	}
+
+	/**
+	 * appends all taxa of the given ordering, which may be this one
+	 */
+	public void addAll(TaxonOrdering that) {
+		var count = that.size; // fixed before appending, in case that is this
+		ensureCapacity(size + count);
+		var thatIds = that.ids;
+		for (var i = 0; i < count; i++)
+			add(thatIds[i]);
+	}
+
+	/**
+	 * removes the taxon at the given position
+	 *
+	 * @return the removed taxon id
+	 */
+	public int removeAt(int index) {
+		var id = get(index);
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		size--;
+		if (position != null) {
+			if (position[id] == index)
+				position[id] = -1;
+			updatePositions(index);
+		}
+		return id;
+	}
+
+	public void clear() {
+		if (position != null) {
+			for (var i = 0; i < size; i++)
+				position[ids[i]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * replaces the contents of this ordering by the given one
+	 */
+	public void setAll(TaxonOrdering that) {
+		if (that != this) {
+			clear();
+			addAll(that);
+		}
+	}
+
+	/**
+	 * returns a copy of the ids as an array
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * the backing array, only the first size() entries are valid
+	 */
+	int[] getIds() {
+		return ids;
+	}
+
+	private void setupPositions() {
+		var maxId = 0;
+		for (var i = 0; i < size; i++)
+			maxId = Math.max(maxId, ids[i]);
+		position = new int[maxId + 1];
+		Arrays.fill(position, -1);
+		for (var i = size - 1; i >= 0; i--)
+			position[ids[i]] = i;
+	}
+
+	/**
+	 * recomputes the positions of all taxa whose first occurrence is at or after the given index
+	 */
+	private void updatePositions(int index) {
+		for (var i = index; i < size; i++) {
+			if (position[ids[i]] >= index)
+				position[ids[i]] = -1;
+		}
+		for (var i = index; i < size; i++) {
+			if (position[ids[i]] == -1)
+				position[ids[i]] = i;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > ids.length)
+			ids = Arrays.copyOf(ids, Math.max(capacity, 2 * ids.length));
+	}
+
+	private void ensurePositionCapacity(int id) {
+		if (id >= position.length) {
+			var oldLength = position.length;
+			position = Arrays.copyOf(position, Math.max(id + 1, 2 * oldLength));
+			Arrays.fill(position, oldLength, position.length, -1);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof TaxonOrdering)) return false;
+		var that = (TaxonOrdering) o;
+		return Arrays.equals(ids, 0, size, that.ids, 0, that.size);
+	}
+
+	@Override
+	public int hashCode() {
+		var result = 1;
+		for (var i = 0; i < size; i++)
+			result = 31 * result + ids[i];
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
@@ -33,6 +33,8 @@ import jloda.phylo.PhyloTree;
 import jloda.phylo.algorithms.RootedNetworkProperties;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.stream.StreamSupport;
 
 /**
  * the main document
@@ -46,6 +48,7 @@ public class Document {
 
 	private final NetworkModel model;
 	private final NetworkView networkView;
+	private final EmbeddingService embeddingService;
 
 	private final GraphFX<PhyloTree> graphFX;
 
@@ -62,6 +65,7 @@ public class Document {
 	public Document() {
 		model = new NetworkModel();
 		networkView = new NetworkView(this);
+		embeddingService = new EmbeddingService(this);
 		graphFX = new GraphFX<>(model.getTree());
 
 		graphFX.getNodeList().addListener((ListChangeListener<Node>) a -> {
@@ -116,6 +120,10 @@ public class Document {
 		return networkView;
 	}
 
+	public EmbeddingService getEmbeddingService() {
+		return embeddingService;
+	}
+
 	public GraphFX<PhyloTree> getGraphFX() {
 		return graphFX;
 	}
@@ -141,8 +149,28 @@ public class Document {
 	}
 
 	public void updateModelAndView() {
-		model.computeEmbedding(isToScale(), 200, 200);
-		NetworkPresenter.model2view(model, getNetworkView());
+		updateModelAndView(null);
+	}
+
+	/**
+	 * recomputes the embedding of the network in the background and then replaces the view
+	 *
+	 * @param onUpdated run once the new view is shown, may be null
+	 */
+	public void updateModelAndView(Runnable onUpdated) {
+		embeddingService.request(onUpdated);
+	}
+
+	/**
+	 * recomputes the embedding of the network in the background after a local edit, keeping the current order of the leaves
+	 *
+	 * @param changed the nodes at which the network was edited
+	 */
+	public void updateModelAndViewIncrementally(Collection<Node> changed) {
+		embeddingService.request(null, changed);
+	}
+
+	void modelAndViewWereUpdated() {
 		modelAndViewUpdated.set(System.currentTimeMillis());
 	}
 
@@ -151,6 +179,8 @@ public class Document {
 	}
 
 	public String getNewickString(boolean toScale, boolean showHTML) {
+		if (toScale && !model.getTree().hasEdgeWeights() && embeddingService.isRunning())
+			toScale = false; // weights are taken from the view, which is only rebuilt once the embedding has been computed
 		if (toScale && !model.getTree().hasEdgeWeights()) {
 			for (var e : model.getTree().edges()) {
 				if (!model.getTree().isReticulateEdge(e)) {
@@ -177,18 +207,28 @@ public class Document {
 		}
 	}
 
+	/**
+	 * gets the selected nodes, or all nodes, if none are selected. While the embedding is being computed, only nodes that
+	 * have a view are returned, as nodes added to the tree since are only given views once the embedding has been computed
+	 */
 	public Iterable<Node> getSelectedOrAllNodes() {
-		if (nodeSelection.size() > 0)
-			return nodeSelection.getSelectedItems();
+		var nodes = (nodeSelection.size() > 0 ? nodeSelection.getSelectedItems() : getModel().getTree().nodes());
+		if (embeddingService.isRunning())
+			return () -> StreamSupport.stream(nodes.spliterator(), false).filter(v -> networkView.getView(v) != null).iterator();
 		else
-			return getModel().getTree().nodes();
+			return nodes;
 	}
 
+	/**
+	 * gets the selected edges, or all edges, if none are selected. While the embedding is being computed, only edges that
+	 * have a view are returned
+	 */
 	public Iterable<Edge> getSelectedOrAllEdges() {
-		if (edgeSelection.size() > 0)
-			return edgeSelection.getSelectedItems();
+		var edges = (edgeSelection.size() > 0 ? edgeSelection.getSelectedItems() : getModel().getTree().edges());
+		if (embeddingService.isRunning())
+			return () -> StreamSupport.stream(edges.spliterator(), false).filter(e -> networkView.getView(e) != null).iterator();
 		else
-			return getModel().getTree().edges();
+			return edges;
 	}
 
 
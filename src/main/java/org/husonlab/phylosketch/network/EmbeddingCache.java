@@ -0,0 +1,391 @@
+/*
+ * EmbeddingCache.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.husonlab.phylosketch.network;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import org.husonlab.phylosketch.DefaultOptions;
+import org.husonlab.phylosketch.algorithms.embedding.CanonicalTopology;
+import org.husonlab.phylosketch.algorithms.embedding.EmbeddingStrategy;
+import org.husonlab.phylosketch.utils.Store;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+
+/**
+ * caches computed embeddings, keyed by the canonical topology of the network
+ * <p/>
+ * An entry holds the order of adjacent edges, the LSA children and the coordinates of all nodes, in the canonical
+ * numbering of the network, so that it applies to any network of the same topology. The least recently used entries
+ * are removed when the cache exceeds its size. An entry is only used for the strategy that computed it. Optionally, entries are also written to disk, so that they survive restarts.
+ * The memory tier is used on the FX application thread, whereas the disk tier is only to be used in a worker thread.
+ */
+public class EmbeddingCache {
+	public static final long MAX_BYTES = 32L * 1024 * 1024;
+	public static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+	private static final String DIRECTORY = "PhyloSketch-App-layouts";
+	private static final int MAGIC = 0x50534c32; // PSL2
+
+	private static EmbeddingCache instance;
+
+	private final LinkedHashMap<Long, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+
+	public static EmbeddingCache getInstance() {
+		if (instance == null)
+			instance = new EmbeddingCache();
+		return instance;
+	}
+
+	/**
+	 * gets the embedding for a network cached in memory
+	 *
+	 * @param topology the canonical topology of the network
+	 * @param strategy the strategy used to optimize the embedding
+	 * @return the cached embedding or null
+	 */
+	public synchronized Entry get(CanonicalTopology topology, EmbeddingStrategy strategy) {
+		var entry = map.get(topology.getHash());
+		return (entry != null && entry.matches(topology, strategy) ? entry : null);
+	}
+
+	/**
+	 * adds an embedding to the cache in memory
+	 */
+	public synchronized void put(Entry entry) {
+		putInMemory(entry);
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		bytes = 0;
+	}
+
+	private void putInMemory(Entry entry) {
+		var old = map.put(entry.hash, entry);
+		if (old != null)
+			bytes -= old.bytes();
+		bytes += entry.bytes();
+		var it = map.values().iterator();
+		while (bytes > MAX_BYTES && it.hasNext()) {
+			var next = it.next();
+			if (next != entry) {
+				bytes -= next.bytes();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * the directory for entries on disk, or null, if entries are not to be written to disk
+	 */
+	private static File getDirectory() {
+		if (DefaultOptions.isCacheLayoutsOnDisk()) {
+			var directory = Store.access(DIRECTORY);
+			if (directory != null && (directory.isDirectory() || directory.mkdirs()))
+				return directory;
+		}
+		return null;
+	}
+
+	private static File getFile(File directory, long hash) {
+		return new File(directory, String.format("%016x.dat", hash));
+	}
+
+	/**
+	 * gets the embedding for a network cached on disk. Not to be called on the FX application thread.
+	 * A file that can't be read is deleted
+	 *
+	 * @param topology the canonical topology of the network
+	 * @param strategy the strategy used to optimize the embedding
+	 * @return the cached embedding or null
+	 */
+	public static Entry readFromDisk(CanonicalTopology topology, EmbeddingStrategy strategy) {
+		var directory = getDirectory();
+		if (directory != null) {
+			var file = getFile(directory, topology.getHash());
+			if (file.isFile()) {
+				try (var ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+					var entry = Entry.read(ins, file.length());
+					if (entry.matches(topology, strategy)) {
+						file.setLastModified(System.currentTimeMillis());
+						return entry;
+					}
+				} catch (IOException | RuntimeException ex) {
+					System.err.println("Failed to read cached layout: " + ex.getMessage());
+					deleteFromDisk(topology.getHash());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * deletes the embedding for a network from disk, if present. Not to be called on the FX application thread
+	 */
+	public static void deleteFromDisk(long hash) {
+		var directory = getDirectory();
+		if (directory != null) {
+			var file = getFile(directory, hash);
+			if (file.isFile() && !file.delete())
+				System.err.println("Failed to delete cached layout: " + file);
+		}
+	}
+
+	/**
+	 * writes an embedding to disk, if enabled, and removes the oldest files, if they exceed the disk size of the cache.
+	 * Not to be called on the FX application thread
+	 */
+	public static void writeToDisk(Entry entry) {
+		var directory = getDirectory();
+		if (directory != null) {
+			try (var outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile(directory, entry.hash))))) {
+				entry.write(outs);
+			} catch (IOException ex) {
+				System.err.println("Failed to write cached layout: " + ex.getMessage());
+			}
+
+			var files = directory.listFiles((d, name) -> name.endsWith(".dat"));
+			if (files != null) {
+				var total = Arrays.stream(files).mapToLong(File::length).sum();
+				if (total > MAX_DISK_BYTES) {
+					Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+					for (var file : files) {
+						if (total <= MAX_DISK_BYTES)
+							break;
+						var length = file.length();
+						if (file.delete())
+							total -= length;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * a cached embedding
+	 */
+	public static final class Entry {
+		private final long hash;
+		private final EmbeddingStrategy strategy;
+		private final int[] edgeNodes;
+		private final String[] labels;
+		private final double[] weights;
+		private final double[] x;
+		private final double[] y;
+		private final int[] adjacentEdges;
+		private final int[] lsaChildren;
+
+		private Entry(long hash, EmbeddingStrategy strategy, int[] edgeNodes, String[] labels, double[] weights, double[] x, double[] y, int[] adjacentEdges, int[] lsaChildren) {
+			this.hash = hash;
+			this.strategy = strategy;
+			this.edgeNodes = edgeNodes;
+			this.labels = labels;
+			this.weights = weights;
+			this.x = x;
+			this.y = y;
+			this.adjacentEdges = adjacentEdges;
+			this.lsaChildren = lsaChildren;
+		}
+
+		/**
+		 * creates an entry for the embedding of a model
+		 *
+		 * @param topology the canonical topology of the model's tree
+		 * @param model    the model, with the embedding computed
+		 * @param strategy the strategy used to optimize the embedding
+		 */
+		public static Entry create(CanonicalTopology topology, NetworkModel model, EmbeddingStrategy strategy) {
+			var tree = model.getTree();
+			var x = new double[topology.getNumberOfNodes()];
+			var y = new double[topology.getNumberOfNodes()];
+			var adjacentEdges = new int[2 * topology.getNumberOfEdges()];
+			var lsaChildren = new ArrayList<Integer>();
+
+			var pos = 0;
+			for (var i = 0; i < topology.getNumberOfNodes(); i++) {
+				var v = topology.getNode(i);
+				var attributes = model.getAttributes(v);
+				x[i] = attributes.x();
+				y[i] = attributes.y();
+				for (var e : v.adjacentEdges()) {
+					adjacentEdges[pos++] = topology.getIndex(e);
+				}
+				var children = tree.getLSAChildrenMap().get(v);
+				if (children == null)
+					lsaChildren.add(-1);
+				else {
+					lsaChildren.add(children.size());
+					for (var w : children) {
+						lsaChildren.add(topology.getIndex(w));
+					}
+				}
+			}
+			return new Entry(topology.getHash(), strategy, topology.getEdgeNodes(), topology.getLabels(), topology.getWeights(), x, y, adjacentEdges,
+					lsaChildren.stream().mapToInt(Integer::intValue).toArray());
+		}
+
+		/**
+		 * applies the cached embedding to a model
+		 *
+		 * @param topology the canonical topology of the model's tree, must be the same as that of the entry
+		 * @param model    the model
+		 */
+		public void apply(CanonicalTopology topology, NetworkModel model) {
+			var tree = model.getTree();
+			model.clear();
+			tree.getLSAChildrenMap().clear();
+
+			var pos = 0;
+			var lsaPos = 0;
+			for (var i = 0; i < topology.getNumberOfNodes(); i++) {
+				var v = topology.getNode(i);
+				var edges = new ArrayList<Edge>(v.getDegree());
+				for (var k = 0; k < v.getDegree(); k++) {
+					edges.add(topology.getEdge(adjacentEdges[pos++]));
+				}
+				v.rearrangeAdjacentEdges(edges);
+
+				var count = lsaChildren[lsaPos++];
+				if (count >= 0) {
+					var children = new ArrayList<Node>(count);
+					for (var k = 0; k < count; k++) {
+						children.add(topology.getNode(lsaChildren[lsaPos++]));
+					}
+					tree.getLSAChildrenMap().put(v, children);
+				}
+			}
+			model.setDefaultAttributes(v -> x[topology.getIndex(v)], v -> y[topology.getIndex(v)]);
+		}
+
+		public long getHash() {
+			return hash;
+		}
+
+		/**
+		 * determines whether the entry is for the given topology and strategy
+		 */
+		private boolean matches(CanonicalTopology topology, EmbeddingStrategy strategy) {
+			return this.strategy == strategy && topology.isSame(hash, edgeNodes, labels, weights);
+		}
+
+		/**
+		 * estimated size of the entry in memory, in bytes
+		 */
+		public long bytes() {
+			var size = 128L + 8L * (x.length + y.length + (weights != null ? weights.length : 0)) + 4L * (edgeNodes.length + adjacentEdges.length + lsaChildren.length);
+			for (var label : labels) {
+				size += 8 + (label != null ? 40 + 2L * label.length() : 0);
+			}
+			return size;
+		}
+
+		private void write(DataOutputStream outs) throws IOException {
+			outs.writeInt(MAGIC);
+			outs.writeLong(hash);
+			outs.writeUTF(strategy.name());
+			writeInts(outs, edgeNodes);
+			outs.writeInt(labels.length);
+			for (var label : labels) {
+				outs.writeBoolean(label != null);
+				if (label != null)
+					outs.writeUTF(label);
+			}
+			outs.writeBoolean(weights != null);
+			if (weights != null)
+				writeDoubles(outs, weights);
+			writeDoubles(outs, x);
+			writeDoubles(outs, y);
+			writeInts(outs, adjacentEdges);
+			writeInts(outs, lsaChildren);
+		}
+
+		/**
+		 * reads an entry
+		 *
+		 * @param size the size of the file, an upper bound on the lengths of all arrays
+		 */
+		private static Entry read(DataInputStream ins, long size) throws IOException {
+			if (ins.readInt() != MAGIC)
+				throw new IOException("Not a cached layout");
+			var hash = ins.readLong();
+			var strategy = EmbeddingStrategy.valueOfNoFail(ins.readUTF());
+			var edgeNodes = readInts(ins, size);
+			var labels = new String[readLength(ins, 1, size)];
+			for (var i = 0; i < labels.length; i++) {
+				if (ins.readBoolean())
+					labels[i] = ins.readUTF();
+			}
+			var weights = (ins.readBoolean() ? readDoubles(ins, size) : null);
+			var x = readDoubles(ins, size);
+			var y = readDoubles(ins, size);
+			var adjacentEdges = readInts(ins, size);
+			var lsaChildren = readInts(ins, size);
+			if (x.length != labels.length || y.length != labels.length || adjacentEdges.length != edgeNodes.length
+				|| (weights != null && 2 * weights.length != edgeNodes.length))
+				throw new IOException("Corrupt cached layout");
+			return new Entry(hash, strategy, edgeNodes, labels, weights, x, y, adjacentEdges, lsaChildren);
+		}
+
+		private static void writeInts(DataOutputStream outs, int[] values) throws IOException {
+			outs.writeInt(values.length);
+			for (var value : values) {
+				outs.writeInt(value);
+			}
+		}
+
+		/**
+		 * reads the length of an array and checks that the array fits into a file of the given size
+		 */
+		private static int readLength(DataInputStream ins, int bytesPerValue, long size) throws IOException {
+			var length = ins.readInt();
+			if (length < 0 || (long) length * bytesPerValue > size)
+				throw new IOException("Corrupt cached layout");
+			return length;
+		}
+
+		private static int[] readInts(DataInputStream ins, long size) throws IOException {
+			var values = new int[readLength(ins, 4, size)];
+			for (var i = 0; i < values.length; i++) {
+				values[i] = ins.readInt();
+			}
+			return values;
+		}
+
+		private static void writeDoubles(DataOutputStream outs, double[] values) throws IOException {
+			outs.writeInt(values.length);
+			for (var value : values) {
+				outs.writeDouble(value);
+			}
+		}
+
+		private static double[] readDoubles(DataInputStream ins, long size) throws IOException {
+			var values = new double[readLength(ins, 8, size)];
+			for (var i = 0; i < values.length; i++) {
+				values[i] = ins.readDouble();
+			}
+			return values;
+		}
+	}
+}
@@ -0,0 +1,526 @@
+/*
+ * EmbeddingService.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.husonlab.phylosketch.network;
+
+import javafx.application.Platform;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+import jloda.fx.window.NotificationManager;
+import jloda.graph.Edge;
+import jloda.graph.EdgeArray;
+import jloda.graph.Node;
+import jloda.graph.NodeArray;
+import jloda.phylo.PhyloTree;
+import jloda.util.CanceledException;
+import jloda.util.progress.ProgressSilent;
+import org.husonlab.phylosketch.DefaultOptions;
+import org.husonlab.phylosketch.algorithms.Traversals;
+import org.husonlab.phylosketch.algorithms.embedding.CanonicalTopology;
+import org.husonlab.phylosketch.algorithms.embedding.EmbeddingBudget;
+import org.husonlab.phylosketch.algorithms.embedding.EmbeddingStrategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * computes the embedding and layout of the network in the background
+ * <p/>
+ * A request copies the tree of the document. The embedding and coordinates are computed for the copy in a worker thread.
+ * Once done, they are copied back to the model on the FX application thread and the view is rebuilt off-scene and then swapped in.
+ * While the embedding is optimized, each better embedding found is shown as soon as its layout has been computed.
+ * Requests that arrive while a computation is running are coalesced into one further computation. Only the callback of the
+ * latest request is run, and only once the view for that request has been swapped in, as earlier requests are superseded.
+ * Computed embeddings are cached by the topology of the network, so that revisiting a network, for example by undo, is instant.
+ * The cache in memory is consulted on the FX application thread, the cache on disk only in the worker thread.
+ * After a local edit, the current order of the leaves is kept and only the embedding around the edit is recomputed.
+ * The view then keeps the views of all nodes and edges that were not edited, only moving them as needed.
+ * If a replaced network is not in the cache, warm start is enabled, all its leaves are currently shown and at least half of its clusters
+ * are shown, too, then the order of the leaves is kept and only refined.
+ * If the computation is canceled, all pending requests are dropped and the unoptimized embedding is computed in the background and shown.
+ */
+public class EmbeddingService extends Service<EmbeddingCache.Entry> {
+	private final Document document;
+	private Runnable onUpdated;
+
+	private Snapshot snapshot;
+	private boolean pending = false;
+	private boolean incremental = true;
+	private final HashSet<Node> changedNodes = new HashSet<>();
+	private Set<Long> shownClusters = Set.of();
+
+	public EmbeddingService(Document document) {
+		this.document = document;
+
+		setOnSucceeded(a -> {
+			if (getValue() != null)
+				EmbeddingCache.getInstance().put(getValue());
+			if (!pending && snapshot.isCurrent(document.getModel())) {
+				document.getModel().copyEmbedding(snapshot.model(), snapshot.nodeMap(), snapshot.edgeMap());
+				var onUpdated = snapshot.onUpdated();
+				var localEdit = (snapshot.changed() != null);
+				dispose();
+				updateView(onUpdated, localEdit);
+			} else {
+				if (!pending) // the tree was changed without a request, so the callback is not superseded
+					onUpdated = snapshot.onUpdated();
+				update();
+			}
+		});
+
+		setOnCancelled(a -> {
+			// the user canceled, fall back to the unoptimized embedding of the current network, which takes linear time:
+			pending = false;
+			incremental = true;
+			changedNodes.clear();
+			onUpdated = null;
+			update(EmbeddingStrategy.None);
+		});
+
+		setOnFailed(a -> {
+			NotificationManager.showError("Embedding failed: " + getException().getMessage());
+			dispose();
+			if (pending)
+				update();
+		});
+	}
+
+	/**
+	 * requests that the embedding and view be recomputed
+	 *
+	 * @param onUpdated run on the FX application thread once the new view has been swapped in, unless superseded by a later request, may be null
+	 */
+	public void request(Runnable onUpdated) {
+		request(onUpdated, null);
+	}
+
+	/**
+	 * requests that the embedding and view be recomputed after a local edit, keeping the current order of the leaves
+	 *
+	 * @param onUpdated run on the FX application thread once the new view has been swapped in, unless superseded by a later request, may be null
+	 * @param changed   the nodes at which the network was edited, or null, if the embedding is to be optimized from scratch
+	 */
+	public void request(Runnable onUpdated, Collection<Node> changed) {
+		if (changed == null)
+			incremental = false;
+		else
+			changedNodes.addAll(changed);
+		this.onUpdated = onUpdated; // replaces the callback of any earlier request, which is superseded by this one
+		if (isRunning())
+			pending = true;
+		else
+			update();
+	}
+
+	/**
+	 * uses the cached embedding, if there is one, otherwise starts the computation
+	 */
+	private void update() {
+		update(DefaultOptions.getEmbeddingStrategy());
+	}
+
+	/**
+	 * uses the cached embedding, if there is one, otherwise starts the computation using the given strategy
+	 */
+	private void update(EmbeddingStrategy strategy) {
+		dispose();
+		pending = false;
+		var useIncremental = (incremental && !changedNodes.isEmpty());
+		var changed = new ArrayList<>(changedNodes);
+		incremental = true;
+		changedNodes.clear();
+		var onUpdated = this.onUpdated;
+		this.onUpdated = null;
+
+		var model = document.getModel();
+		var topology = CanonicalTopology.compute(model.getTree(), document.isToScale());
+		var entry = (topology != null ? EmbeddingCache.getInstance().get(topology, strategy) : null);
+		if (entry != null) {
+			try {
+				entry.apply(topology, model);
+				updateView(onUpdated, useIncremental);
+				return;
+			} catch (RuntimeException ex) {
+				System.err.println("Cached layout failed: " + ex.getMessage());
+				EmbeddingCache.getInstance().clear();
+			}
+		}
+		var labelPositions = (!useIncremental && strategy != EmbeddingStrategy.None && DefaultOptions.isEmbeddingWarmStart() && isCloseToShown(model.getTree()) ? getLeafPositions(model.getTree()) : null);
+		snapshot = Snapshot.create(document, topology, strategy, useIncremental ? changed : null, labelPositions, onUpdated);
+		restart();
+	}
+
+	/**
+	 * gets the positions of the leaves currently shown, by label, for a warm start
+	 *
+	 * @return the positions, or null, if some leaf of the tree is not shown
+	 */
+	private Map<String, Double> getLeafPositions(PhyloTree tree) {
+		var labelPositions = document.getNetworkView().getLabelPositions();
+		if (tree.getNumberOfNodes() > 0 && tree.nodeStream().filter(Node::isLeaf).allMatch(v -> tree.getLabel(v) != null && labelPositions.containsKey(tree.getLabel(v))))
+			return labelPositions;
+		else
+			return null;
+	}
+
+	/**
+	 * determines whether at least half of the clusters of the given network are clusters of the network currently shown
+	 */
+	private boolean isCloseToShown(PhyloTree tree) {
+		var clusters = computeClusters(tree);
+		if (clusters.isEmpty())
+			return false;
+		var shared = clusters.stream().filter(shownClusters::contains).count();
+		return 2 * shared >= clusters.size();
+	}
+
+	/**
+	 * computes hashes of the clusters of all nodes that have no reticulation below them, by the labels of the leaves
+	 *
+	 * @return the cluster hashes, empty, if some leaf is not labeled
+	 */
+	private static Set<Long> computeClusters(PhyloTree tree) {
+		var clusters = new HashSet<Long>();
+		var root = tree.getRoot();
+		if (root == null || root.getOwner() != tree)
+			return clusters;
+		try (NodeArray<Long> clusterHash = tree.newNodeArray()) {
+			var reticulateBelow = new HashSet<Node>();
+			var unlabeled = new boolean[]{false};
+			Traversals.postOrder(root, Node::children, w -> !clusterHash.containsKey(w), v -> {
+				if (v.isLeaf()) {
+					var label = tree.getLabel(v);
+					if (label == null)
+						unlabeled[0] = true;
+					clusterHash.put(v, label != null ? mix(label.hashCode()) : 0L);
+				} else {
+					var hash = 0L;
+					for (var w : v.children()) {
+						if (w.getInDegree() > 1 || reticulateBelow.contains(w))
+							reticulateBelow.add(v);
+						hash += clusterHash.get(w);
+					}
+					clusterHash.put(v, hash);
+					// a node with a reticulation below it has no cluster of a tree:
+					if (!reticulateBelow.contains(v))
+						clusters.add(hash);
+				}
+			});
+			if (unlabeled[0])
+				clusters.clear();
+		}
+		return clusters;
+	}
+
+	private static long mix(long h) {
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * rebuilds the view
+	 *
+	 * @param onUpdated   run once the view has been rebuilt, may be null
+	 * @param incremental if true, the view still shows the network before a local edit, so only the views of new or moved nodes and edges are updated
+	 */
+	private void updateView(Runnable onUpdated, boolean incremental) {
+		if (incremental)
+			NetworkPresenter.model2viewIncrementally(document.getModel(), document.getNetworkView());
+		else
+			NetworkPresenter.model2view(document.getModel(), document.getNetworkView());
+		shownClusters = computeClusters(document.getModel().getTree());
+		document.modelAndViewWereUpdated();
+		if (onUpdated != null)
+			onUpdated.run();
+	}
+
+	private void dispose() {
+		if (snapshot != null) {
+			snapshot.close();
+			snapshot = null;
+		}
+	}
+
+	@Override
+	protected Task<EmbeddingCache.Entry> createTask() {
+		var snapshot = this.snapshot;
+		return new Task<>() {
+			private final AtomicReference<EmbeddingCache.Entry> improved = new AtomicReference<>();
+
+			@Override
+			protected EmbeddingCache.Entry call() {
+				var progress = new ProgressSilent() {
+					private long maximum = 0;
+
+					@Override
+					public void setMaximum(long maximum) {
+						this.maximum = maximum;
+						super.setMaximum(maximum);
+					}
+
+					@Override
+					public void setProgress(long steps) throws CanceledException {
+						if (maximum > 0)
+							updateProgress(steps, maximum);
+						super.setProgress(steps);
+					}
+
+					@Override
+					public void setSubtask(String subtask) {
+						updateMessage(subtask);
+					}
+
+					@Override
+					public void checkForCancel() throws CanceledException {
+						if (isCancelled())
+							throw new CanceledException();
+					}
+				};
+				var cached = getFromDisk();
+				if (cached != null)
+					return cached;
+				if (snapshot.changed() != null) {
+					snapshot.model().computeEmbeddingIncrementally(snapshot.toScale(), 200, 200, snapshot.node2pos(), snapshot.changed());
+					return null; // only optimized embeddings are cached
+				}
+				var budget = EmbeddingBudget.ofSeconds(snapshot.timeBudget());
+				if (snapshot.node2pos() != null) {
+					snapshot.model().computeEmbeddingWarmStart(snapshot.toScale(), 200, 200, snapshot.node2pos(), progress, budget);
+					return null; // depends on the previous layout, so not cached
+				}
+				snapshot.model().computeEmbedding(snapshot.toScale(), 200, 200, progress, budget, snapshot.strategy(), this::publish);
+				if (budget.isExpired() || isCancelled())
+					return null; // don't cache an embedding whose optimization was cut short
+				var topology = CanonicalTopology.compute(snapshot.model().getTree(), snapshot.toScale());
+				if (topology == null)
+					return null;
+				var entry = EmbeddingCache.Entry.create(topology, snapshot.model(), snapshot.strategy());
+				EmbeddingCache.writeToDisk(entry);
+				return entry;
+			}
+
+			/**
+			 * publishes the embedding of the copy, after a better one has been found, to be shown while the optimization continues.
+			 * Only the latest embedding published is shown
+			 */
+			private void publish() {
+				var topology = CanonicalTopology.compute(snapshot.model().getTree(), snapshot.toScale());
+				if (topology != null && !isCancelled() && improved.getAndSet(EmbeddingCache.Entry.create(topology, snapshot.model(), snapshot.strategy())) == null)
+					Platform.runLater(this::showImproved);
+			}
+
+			/**
+			 * shows the embedding published last, unless the computation is done or superseded. Runs on the FX application thread
+			 */
+			private void showImproved() {
+				var entry = improved.getAndSet(null);
+				if (entry != null && isRunning() && !pending && EmbeddingService.this.snapshot == snapshot && snapshot.topology() != null
+					&& entry.getHash() == snapshot.topology().getHash() && snapshot.isCurrent(document.getModel())) {
+					try {
+						entry.apply(snapshot.topology(), document.getModel());
+						updateView(null, false);
+					} catch (RuntimeException ex) {
+						System.err.println("Improved layout failed: " + ex.getMessage());
+					}
+				}
+			}
+
+			/**
+			 * applies the embedding cached on disk to the copy, if there is one
+			 *
+			 * @return the cached embedding or null
+			 */
+			private EmbeddingCache.Entry getFromDisk() {
+				var topology = CanonicalTopology.compute(snapshot.model().getTree(), snapshot.toScale());
+				var entry = (topology != null ? EmbeddingCache.readFromDisk(topology, snapshot.strategy()) : null);
+				if (entry != null) {
+					try {
+						entry.apply(topology, snapshot.model());
+						return entry;
+					} catch (RuntimeException ex) {
+						System.err.println("Cached layout failed: " + ex.getMessage());
+						EmbeddingCache.deleteFromDisk(entry.getHash());
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * a copy of the network to be embedded, together with the maps from the nodes and edges of the document's tree to the copy
+	 */
+	private static final class Snapshot implements AutoCloseable {
+		private final NetworkModel model;
+		private final CanonicalTopology topology;
+		private final NodeArray<Node> nodeMap;
+		private final EdgeArray<Edge> edgeMap;
+		private final boolean toScale;
+		private final int timeBudget;
+		private final EmbeddingStrategy strategy;
+		private final Map<Node, Float> node2pos;
+		private final Collection<Node> changed;
+		private final Runnable onUpdated;
+
+		private Snapshot(NetworkModel model, CanonicalTopology topology, NodeArray<Node> nodeMap, EdgeArray<Edge> edgeMap, boolean toScale, int timeBudget, EmbeddingStrategy strategy, Map<Node, Float> node2pos, Collection<Node> changed, Runnable onUpdated) {
+			this.model = model;
+			this.topology = topology;
+			this.nodeMap = nodeMap;
+			this.edgeMap = edgeMap;
+			this.toScale = toScale;
+			this.timeBudget = timeBudget;
+			this.strategy = strategy;
+			this.node2pos = node2pos;
+			this.changed = changed;
+			this.onUpdated = onUpdated;
+		}
+
+		/**
+		 * creates a snapshot
+		 *
+		 * @param topology       the canonical topology of the document's tree, used to show improved embeddings, may be null
+		 * @param strategy       the strategy used to optimize the embedding
+		 * @param changed        the nodes at which the network was edited, if the embedding is to be computed incrementally, otherwise null
+		 * @param labelPositions the positions of the leaves by label, if the embedding is to be warm-started, otherwise null
+		 * @param onUpdated      run once the result for this snapshot has been swapped in, may be null
+		 */
+		public static Snapshot create(Document document, CanonicalTopology topology, EmbeddingStrategy strategy, Collection<Node> changed, Map<String, Double> labelPositions, Runnable onUpdated) {
+			var tree = document.getModel().getTree();
+			var model = new NetworkModel();
+			NodeArray<Node> nodeMap = tree.newNodeArray();
+			EdgeArray<Edge> edgeMap = tree.newEdgeArray();
+			model.getTree().copy(tree, nodeMap, edgeMap);
+
+			Map<Node, Float> node2pos = null;
+			Collection<Node> changedCopies = null;
+			if (changed != null) {
+				node2pos = new HashMap<>();
+				for (var v : tree.nodes()) {
+					var view = document.getNetworkView().getView(v);
+					if (view != null)
+						node2pos.put(nodeMap.get(v), (float) view.shape().getTranslateY());
+				}
+				// keep the LSA children of the last embedding so that the incremental embedder only needs to update the edited part
+				var lsaChildren = model.getTree().getLSAChildrenMap();
+				lsaChildren.clear();
+				for (var v : tree.nodes()) {
+					var children = tree.getLSAChildrenMap().get(v);
+					if (children != null) {
+						var list = new ArrayList<Node>();
+						for (var w : children) {
+							if (w.getOwner() == tree)
+								list.add(nodeMap.get(w));
+						}
+						lsaChildren.put(nodeMap.get(v), list);
+					}
+				}
+				changedCopies = new ArrayList<>();
+				for (var v : changed) {
+					if (v.getOwner() == tree)
+						changedCopies.add(nodeMap.get(v));
+				}
+				if (changedCopies.isEmpty())
+					changedCopies = null;
+			} else if (labelPositions != null) {
+				node2pos = new HashMap<>();
+				for (var v : model.getTree().nodes()) {
+					if (v.isLeaf() && labelPositions.containsKey(model.getTree().getLabel(v)))
+						node2pos.put(v, labelPositions.get(model.getTree().getLabel(v)).floatValue());
+				}
+			}
+			return new Snapshot(model, topology, nodeMap, edgeMap, document.isToScale(), DefaultOptions.getEmbeddingTimeBudget(), strategy, node2pos, changedCopies, onUpdated);
+		}
+
+		/**
+		 * determines whether the tree of the given model has not changed since the snapshot was taken
+		 */
+		public boolean isCurrent(NetworkModel current) {
+			var tree = current.getTree();
+			var copy = model.getTree();
+			if (tree.getNumberOfNodes() != copy.getNumberOfNodes() || tree.getNumberOfEdges() != copy.getNumberOfEdges())
+				return false;
+			for (var v : tree.nodes()) {
+				var w = nodeMap.get(v);
+				if (w == null || !Objects.equals(tree.getLabel(v), copy.getLabel(w)))
+					return false;
+			}
+			for (var e : tree.edges()) {
+				if (edgeMap.get(e) == null)
+					return false;
+			}
+			return true;
+		}
+
+		public NetworkModel model() {
+			return model;
+		}
+
+		public CanonicalTopology topology() {
+			return topology;
+		}
+
+		public NodeArray<Node> nodeMap() {
+			return nodeMap;
+		}
+
+		public EdgeArray<Edge> edgeMap() {
+			return edgeMap;
+		}
+
+		public boolean toScale() {
+			return toScale;
+		}
+
+		public int timeBudget() {
+			return timeBudget;
+		}
+
+		public EmbeddingStrategy strategy() {
+			return strategy;
+		}
+
+		public Map<Node, Float> node2pos() {
+			return node2pos;
+		}
+
+		public Collection<Node> changed() {
+			return changed;
+		}
+
+		public Runnable onUpdated() {
+			return onUpdated;
+		}
+
+		@Override
+		public void close() {
+			nodeMap.close();
+			edgeMap.close();
+		}
+	}
+}
@@ -20,19 +20,26 @@
 
 package org.husonlab.phylosketch.network;
 
-import javafx.geometry.Point2D;
 import javafx.scene.paint.Paint;
 import jloda.fx.util.ProgramProperties;
 import jloda.graph.*;
 import jloda.phylo.PhyloTree;
 import jloda.util.CanceledException;
+import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressSilent;
+import org.husonlab.phylosketch.algorithms.embedding.EmbeddingBudget;
 import org.husonlab.phylosketch.algorithms.embedding.EmbeddingOptimizer;
+import org.husonlab.phylosketch.algorithms.embedding.EmbeddingStrategy;
 import org.husonlab.phylosketch.algorithms.embedding.HeightAndAngles;
+import org.husonlab.phylosketch.algorithms.embedding.IncrementalEmbedder;
 import org.husonlab.phylosketch.algorithms.embedding.LSATree;
-import org.husonlab.phylosketch.algorithms.embedding.LayoutTreeRectangular;
+import org.husonlab.phylosketch.algorithms.embedding.RectangularLayout;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.ToDoubleFunction;
 
 /**
  * model of a network with some node and edge attributes
@@ -61,41 +68,6 @@ public class NetworkModel {
 		this.tree = new PhyloTree();
 		nodeAttributesNodeMap = tree.newNodeArray();
 		edgeAttributesMap = tree.newEdgeArray();
-	}
-
-	/**
-	 * computes a simple left-to-right embedding
-	 *
-	 * @param fitWidth
-	 * @param fitHeight
-	 */
-	public void computeEmbedding(boolean toScale, double fitWidth, double fitHeight) {
-		clear();
-
-		try {
-			LSATree.computeNodeLSAChildrenMap(tree);
-			EmbeddingOptimizer.apply(tree, new ProgressSilent());
-		} catch (CanceledException ignored) {
-		}
-		try (NodeArray<Point2D> nodePointMap = LayoutTreeRectangular.apply(tree, toScale, HeightAndAngles.Averaging.LeafAverage)) {
-
-			fit(fitWidth, fitHeight, nodePointMap);
-
-			for (var v : tree.nodes()) {
-				var point = nodePointMap.get(v);
-				var vx = (point != null ? point.getX() : 0);
-				var vy = (point != null ? point.getY() : 0);
-				var text = tree.getLabel(v);
-				var label = new Label(10, -0.5 * NetworkPresenter.DEFAULT_FONT_SIZE.get(), 0, text != null ? text : "");
-				setAttributes(v, new NodeAttributes(vx, vy, NodeGlyph.Circle, null, null, null, null, label));
-			}
-
-			var edgeGlyph = EdgeGlyph.valueOfNoFail(ProgramProperties.get("EdgeGlyph", EdgeGlyph.RectangleLine.name()));
-
-			for (var e : tree.edges()) {
-				edgeAttributesMap.put(e, new EdgeAttributes(edgeGlyph, null, null, null));
-			}
-		}
 
 		tree.addGraphUpdateListener(new GraphUpdateAdapter() {
 			@Override
@@ -120,40 +92,161 @@ public class NetworkModel {
 		});
 	}
 
-	private static void fit(double fitWidth, double fitHeight, NodeArray<Point2D> map) {
-		if (fitWidth > 0) {
-			var min = map.values().stream().mapToDouble(Point2D::getX).min().orElse(0);
-			var max = map.values().stream().mapToDouble(Point2D::getX).max().orElse(0);
-			var diff = max - min > 0 ? max - min : 1.0;
-			map.replaceAll(((key, value) -> new Point2D((value.getX() - min) / diff * fitWidth, value.getY())));
+	/**
+	 * computes a simple left-to-right embedding
+	 *
+	 * @param fitWidth
+	 * @param fitHeight
+	 */
+	public void computeEmbedding(boolean toScale, double fitWidth, double fitHeight) {
+		computeEmbedding(toScale, fitWidth, fitHeight, new ProgressSilent(), EmbeddingBudget.UNLIMITED);
+	}
+
+	/**
+	 * computes a simple left-to-right embedding, optimizing the embedding of a network within the given time budget.
+	 * If the budget is used up or the user cancels before an optimized embedding has been found, the unoptimized one is used
+	 *
+	 * @param progress reports progress and allows the user to cancel
+	 * @param budget   the time budget for optimizing the embedding
+	 */
+	public void computeEmbedding(boolean toScale, double fitWidth, double fitHeight, ProgressListener progress, EmbeddingBudget budget) {
+		computeEmbedding(toScale, fitWidth, fitHeight, progress, budget, EmbeddingStrategy.NeighborNet);
+	}
+
+	/**
+	 * computes a simple left-to-right embedding, optimizing the embedding of a network using the given strategy, within the given time budget
+	 *
+	 * @param progress reports progress and allows the user to cancel
+	 * @param budget   the time budget for optimizing the embedding
+	 * @param strategy the strategy used to optimize the embedding
+	 */
+	public void computeEmbedding(boolean toScale, double fitWidth, double fitHeight, ProgressListener progress, EmbeddingBudget budget, EmbeddingStrategy strategy) {
+		computeEmbedding(toScale, fitWidth, fitHeight, progress, budget, strategy, null);
+	}
+
+	/**
+	 * computes a simple left-to-right embedding, optimizing the embedding of a network using the given strategy, within the given time budget.
+	 * Whenever the optimization has found a better embedding than before, the layout is computed for it and onImproved is run
+	 *
+	 * @param progress   reports progress and allows the user to cancel
+	 * @param budget     the time budget for optimizing the embedding
+	 * @param strategy   the strategy used to optimize the embedding
+	 * @param onImproved run when the layout of a better embedding has been computed, before the optimization is done, may be run on another thread, may be null
+	 */
+	public void computeEmbedding(boolean toScale, double fitWidth, double fitHeight, ProgressListener progress, EmbeddingBudget budget, EmbeddingStrategy strategy, Runnable onImproved) {
+		clear();
+
+		try {
+			LSATree.computeNodeLSAChildrenMap(tree);
+			EmbeddingOptimizer.apply(tree, progress, budget, strategy, onImproved == null ? null : () -> {
+				computeLayout(toScale, fitWidth, fitHeight);
+				onImproved.run();
+			});
+		} catch (CanceledException ignored) {
 		}
-		if (fitHeight > 0) {
-			var min = map.values().stream().mapToDouble(Point2D::getY).min().orElse(0);
-			var max = map.values().stream().mapToDouble(Point2D::getY).max().orElse(0);
-			var diff = max - min > 0 ? max - min : 1.0;
-			map.replaceAll(((v, value) -> new Point2D(value.getX(), (value.getY() - min) / diff * fitHeight)));
+		computeLayout(toScale, fitWidth, fitHeight);
+	}
+
+	/**
+	 * computes a simple left-to-right embedding, warm-started from the given order of the leaves, see {@link EmbeddingOptimizer#applyWarmStart}
+	 *
+	 * @param node2pos the current position of each leaf
+	 * @param progress reports progress and allows the user to cancel
+	 * @param budget   the time budget for refining the embedding
+	 */
+	public void computeEmbeddingWarmStart(boolean toScale, double fitWidth, double fitHeight, Map<Node, Float> node2pos, ProgressListener progress, EmbeddingBudget budget) {
+		clear();
+
+		try {
+			LSATree.computeNodeLSAChildrenMap(tree);
+			EmbeddingOptimizer.applyWarmStart(tree, node2pos, progress, budget);
+		} catch (CanceledException ignored) {
 		}
+		computeLayout(toScale, fitWidth, fitHeight);
+	}
+
+	/**
+	 * computes a simple left-to-right embedding after a local edit, keeping the current order of the leaves, see {@link IncrementalEmbedder}
+	 *
+	 * @param node2pos the current position of each node
+	 * @param changed  the nodes at which the network was edited
+	 */
+	public void computeEmbeddingIncrementally(boolean toScale, double fitWidth, double fitHeight, Map<Node, Float> node2pos, Collection<Node> changed) {
+		clear();
+		IncrementalEmbedder.apply(tree, node2pos, changed);
+		computeLayout(toScale, fitWidth, fitHeight);
+	}
 
+	private void computeLayout(boolean toScale, double fitWidth, double fitHeight) {
+		var layout = RectangularLayout.apply(tree, toScale, HeightAndAngles.Averaging.LeafAverage, fitWidth, fitHeight);
+		setDefaultAttributes(layout::getX, layout::getY);
 	}
 
-	private static void fit(double fitWidth, double fitHeight, NodeDoubleArray x, NodeDoubleArray y) {
-		if (fitWidth > 0) {
-			var min = x.values().stream().mapToDouble(a -> a).min().orElse(0);
-			var max = x.values().stream().mapToDouble(a -> a).max().orElse(0);
-			var diff = max - min > 0 ? max - min : 1.0;
-			for (var v : x.keySet()) {
-				x.computeIfPresent(v, (k, o) -> (o - min) / diff * fitWidth);
-			}
+	/**
+	 * sets the attributes of all nodes and edges to the default ones, placing nodes at the given coordinates
+	 *
+	 * @param x the x-coordinate of each node
+	 * @param y the y-coordinate of each node
+	 */
+	public void setDefaultAttributes(ToDoubleFunction<Node> x, ToDoubleFunction<Node> y) {
+		for (var v : tree.nodes()) {
+			var vx = x.applyAsDouble(v);
+			var vy = y.applyAsDouble(v);
+			var text = tree.getLabel(v);
+			var label = new Label(10, -0.5 * NetworkPresenter.DEFAULT_FONT_SIZE.get(), 0, text != null ? text : "");
+			setAttributes(v, new NodeAttributes(vx, vy, NodeGlyph.Circle, null, null, null, null, label));
 		}
-		if (fitHeight > 0) {
-			var min = y.values().stream().mapToDouble(a -> a).min().orElse(0);
-			var max = y.values().stream().mapToDouble(a -> a).max().orElse(0);
-			var diff = max - min > 0 ? max - min : 1.0;
-			for (var v : y.keySet()) {
-				y.computeIfPresent(v, (k, o) -> (o - min) / diff * fitHeight);
-			}
+
+		var edgeGlyph = EdgeGlyph.valueOfNoFail(ProgramProperties.get("EdgeGlyph", EdgeGlyph.RectangleLine.name()));
+
+		for (var e : tree.edges()) {
+			edgeAttributesMap.put(e, new EdgeAttributes(edgeGlyph, null, null, null));
 		}
+	}
+
+	/**
+	 * copies the embedding computed for a copy of the tree: the order of adjacent edges, the LSA children and all node and edge attributes
+	 *
+	 * @param src        the model of the copy
+	 * @param srcNodeMap maps each node of this tree to the corresponding node of the copy
+	 * @param srcEdgeMap maps each edge of this tree to the corresponding edge of the copy
+	 */
+	public void copyEmbedding(NetworkModel src, NodeArray<Node> srcNodeMap, EdgeArray<Edge> srcEdgeMap) {
+		clear();
+		tree.getLSAChildrenMap().clear();
 
+		var srcTree = src.getTree();
+		try (NodeArray<Node> node2tar = srcTree.newNodeArray();
+			 EdgeArray<Edge> edge2tar = srcTree.newEdgeArray()) {
+			for (var v : tree.nodes()) {
+				node2tar.put(srcNodeMap.get(v), v);
+			}
+			for (var e : tree.edges()) {
+				edge2tar.put(srcEdgeMap.get(e), e);
+			}
+
+			for (var v : tree.nodes()) {
+				var srcV = srcNodeMap.get(v);
+				var adjacentEdges = new ArrayList<Edge>();
+				for (var f : srcV.adjacentEdges()) {
+					adjacentEdges.add(edge2tar.get(f));
+				}
+				v.rearrangeAdjacentEdges(adjacentEdges);
+
+				var srcChildren = srcTree.getLSAChildrenMap().get(srcV);
+				if (srcChildren != null) {
+					var children = new ArrayList<Node>();
+					for (var w : srcChildren) {
+						children.add(node2tar.get(w));
+					}
+					tree.getLSAChildrenMap().put(v, children);
+				}
+				setAttributes(v, src.getAttributes(srcV));
+			}
+			for (var e : tree.edges()) {
+				setAttributes(e, src.getAttributes(srcEdgeMap.get(e)));
+			}
+		}
 	}
 
 	public void clear() {
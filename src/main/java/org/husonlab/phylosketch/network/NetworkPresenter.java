@@ -35,7 +35,6 @@ import jloda.fx.shapes.SquareShape;
 import jloda.fx.util.ProgramProperties;
 import jloda.graph.Edge;
 import jloda.graph.Node;
-import jloda.graph.NodeArray;
 import org.husonlab.phylosketch.DefaultOptions;
 import org.husonlab.phylosketch.network.interaction.EdgeShapeInteraction;
 import org.husonlab.phylosketch.network.interaction.LabelEditingManager;
@@ -44,6 +43,9 @@ import org.husonlab.phylosketch.network.interaction.NodeShapeInteraction;
 import org.husonlab.phylosketch.utils.SelectionEffect;
 import org.husonlab.phylosketch.views.primary.InteractionMode;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+
 
 /**
  * computes network view from model and vice versa
@@ -61,6 +63,8 @@ public class NetworkPresenter {
 	public static void setupView(ReadOnlyBooleanProperty focus, Pane pane, Document document, ObjectProperty<InteractionMode> modeProperty) {
 		var networkView = document.getNetworkView();
 		pane.getChildren().setAll(networkView.getWorld());
+		// the view still shows the previous network while the embedding is being computed
+		networkView.getWorld().mouseTransparentProperty().bind(document.getEmbeddingService().runningProperty());
 		var nodeSelection = document.getNodeSelection();
 		var edgeSelection = document.getEdgeSelection();
 
@@ -82,9 +86,11 @@ public class NetworkPresenter {
 		nodeSelection.getSelectedItems().addListener((SetChangeListener<? super Node>) c -> {
 			if (c.wasAdded()) {
 				var nv = networkView.getView(c.getElementAdded());
-				nv.shape().setEffect(SelectionEffect.getInstance());
-				if (nv.label() != null)
-					nv.label().setEffect(SelectionEffect.getInstance());
+				if (nv != null) { // a node added while the embedding is computed has no view yet
+					nv.shape().setEffect(SelectionEffect.getInstance());
+					if (nv.label() != null)
+						nv.label().setEffect(SelectionEffect.getInstance());
+				}
 			} else if (c.wasRemoved()) {
 				var nv = networkView.getView(c.getElementRemoved());
 				if (nv != null) {
@@ -98,9 +104,11 @@ public class NetworkPresenter {
 		edgeSelection.getSelectedItems().addListener((SetChangeListener<? super Edge>) c -> {
 			if (c.wasAdded()) {
 				var ev = networkView.getView(c.getElementAdded());
-				ev.curve().setEffect(SelectionEffect.getInstance());
-				if (ev.label() != null)
-					ev.label().setEffect(SelectionEffect.getInstance());
+				if (ev != null) {
+					ev.curve().setEffect(SelectionEffect.getInstance());
+					if (ev.label() != null)
+						ev.label().setEffect(SelectionEffect.getInstance());
+				}
 			} else if (c.wasRemoved()) {
 				var ev = networkView.getView(c.getElementRemoved());
 				if (ev != null) {
@@ -113,68 +121,114 @@ public class NetworkPresenter {
 	}
 
 	public static void model2view(NetworkModel model, NetworkView networkView) {
-		networkView.clear();
+		var groups = networkView.startRebuild();
 		var tree = model.getTree();
 
-		try (NodeArray<DoubleProperty> x = tree.newNodeArray();
-			 NodeArray<DoubleProperty> y = tree.newNodeArray()) {
-			for (var v : tree.nodes()) {
-				var attributes = model.getAttributes(v);
-				var size = attributes.height() != null ? attributes.height() : DefaultOptions.getNodeSize();
-				var fill = attributes.fill() != null ? attributes.fill() : DefaultOptions.getNodeFill();
-				var stroke = attributes.stroke() != null ? attributes.stroke() : DefaultOptions.getNodeStroke();
-				Shape shape;
-				switch (attributes.glyph()) {
-					case Square:
-						shape = new SquareShape(size);
-						break;
-					case Circle:
-						shape = new CircleShape(size);
-						break;
-					default:
-						throw new IllegalArgumentException();
+		for (var v : tree.nodes()) {
+			createNodeView(model, networkView, v);
+		}
+		for (var e : tree.edges()) {
+			createEdgeView(model, networkView, e);
+		}
+		networkView.finishRebuild(groups);
+	}
+
+	/**
+	 * updates the view after the network was re-embedded following a local edit. Nodes and edges that have a view keep it,
+	 * nodes whose coordinates changed are moved, edges keep their shape relative to their ends, and views are only created
+	 * for new nodes and edges and removed for deleted ones
+	 */
+	public static void model2viewIncrementally(NetworkModel model, NetworkView networkView) {
+		var tree = model.getTree();
+		networkView.removeObsoleteViews();
+
+		var moved = new ArrayList<Node>();
+		var normalized = new HashMap<Edge, double[]>();
+		for (var v : tree.nodes()) {
+			var nv = networkView.getView(v);
+			var attributes = model.getAttributes(v);
+			if (nv != null && (nv.shape().getTranslateX() != attributes.x() || nv.shape().getTranslateY() != attributes.y())) {
+				moved.add(v);
+				for (var e : v.adjacentEdges()) {
+					var ev = networkView.getView(e);
+					if (ev != null && !normalized.containsKey(e))
+						normalized.put(e, ev.getControlCoordinatesNormalized());
 				}
-				shape.setId("graph-node");
-				shape.setStroke(stroke);
-				shape.setFill(fill);
-				shape.setTranslateX(attributes.x());
-				shape.setTranslateY(attributes.y());
-				x.put(v, shape.translateXProperty());
-				y.put(v, shape.translateYProperty());
-
-				var label = attributes.label();
-				var text = label.text();
-				var textLabel = new RichTextLabel(text != null ? text : "");
-				textLabel.translateXProperty().bind(shape.translateXProperty());
-				textLabel.translateYProperty().bind(shape.translateYProperty());
-				textLabel.setLayoutX(label.dx());
-				textLabel.setLayoutY(label.dy());
-				textLabel.setRotate(label.angle()); // todo: not sure about this
-				var nv = new NodeView(shape, textLabel);
-				networkView.setView(v, nv);
 			}
+		}
+		for (var v : moved) {
+			var shape = networkView.getView(v).shape();
+			shape.setTranslateX(model.getAttributes(v).x());
+			shape.setTranslateY(model.getAttributes(v).y());
+		}
+		for (var entry : normalized.entrySet()) {
+			networkView.getView(entry.getKey()).setControlCoordinatesFromNormalized(entry.getValue());
+		}
 
-			for (var e : tree.edges()) {
-				var attributes = model.getAttributes(e);
-				var controlPoints = networkView.computeControlPoints(e, attributes.glyph());
-				var ev = networkView.createEdgeView(e);
-				ev.setStrokeWidth(attributes.strokeWidth() != null ? attributes.strokeWidth() : DefaultOptions.getEdgeWidth());
-				if (attributes.stroke() != null)
-					ev.setStroke(attributes.stroke());
-				else if (tree.isTreeEdge(e) || tree.isTransferAcceptorEdge(e))
-					ev.setStroke(DefaultOptions.getEdgeColor());
-				else
-					ev.setStroke(DefaultOptions.getReticulateColor());
-
-				ev.getCircle1().setTranslateX(controlPoints[0]);
-				ev.getCircle1().setTranslateY(controlPoints[1]);
-				ev.getCircle2().setTranslateX(controlPoints[2]);
-				ev.getCircle2().setTranslateY(controlPoints[3]);
-				var label = attributes.label();
-				if (label != null)
-					networkView.addLabel(e, label.text(), label.dx(), label.dy());
-			}
+		for (var v : tree.nodes()) {
+			if (networkView.getView(v) == null)
+				createNodeView(model, networkView, v);
+		}
+		for (var e : tree.edges()) {
+			if (networkView.getView(e) == null)
+				createEdgeView(model, networkView, e);
+		}
+	}
+
+	private static void createNodeView(NetworkModel model, NetworkView networkView, Node v) {
+		var attributes = model.getAttributes(v);
+		var size = attributes.height() != null ? attributes.height() : DefaultOptions.getNodeSize();
+		var fill = attributes.fill() != null ? attributes.fill() : DefaultOptions.getNodeFill();
+		var stroke = attributes.stroke() != null ? attributes.stroke() : DefaultOptions.getNodeStroke();
+		Shape shape;
+		switch (attributes.glyph()) {
+			case Square:
+				shape = new SquareShape(size);
+				break;
+			case Circle:
+				shape = new CircleShape(size);
+				break;
+			default:
+				throw new IllegalArgumentException();
 		}
+		shape.setId("graph-node");
+		shape.setStroke(stroke);
+		shape.setFill(fill);
+		shape.setTranslateX(attributes.x());
+		shape.setTranslateY(attributes.y());
+
+		var label = attributes.label();
+		var text = label.text();
+		var textLabel = new RichTextLabel(text != null ? text : "");
+		textLabel.translateXProperty().bind(shape.translateXProperty());
+		textLabel.translateYProperty().bind(shape.translateYProperty());
+		textLabel.setLayoutX(label.dx());
+		textLabel.setLayoutY(label.dy());
+		textLabel.setRotate(label.angle()); // todo: not sure about this
+		var nv = new NodeView(shape, textLabel);
+		networkView.setView(v, nv);
+	}
+
+	private static void createEdgeView(NetworkModel model, NetworkView networkView, Edge e) {
+		var tree = model.getTree();
+		var attributes = model.getAttributes(e);
+		var controlPoints = networkView.computeControlPoints(e, attributes.glyph());
+		var ev = networkView.createEdgeView(e);
+		ev.setStrokeWidth(attributes.strokeWidth() != null ? attributes.strokeWidth() : DefaultOptions.getEdgeWidth());
+		if (attributes.stroke() != null)
+			ev.setStroke(attributes.stroke());
+		else if (tree.isTreeEdge(e) || tree.isTransferAcceptorEdge(e))
+			ev.setStroke(DefaultOptions.getEdgeColor());
+		else
+			ev.setStroke(DefaultOptions.getReticulateColor());
+
+		ev.getCircle1().setTranslateX(controlPoints[0]);
+		ev.getCircle1().setTranslateY(controlPoints[1]);
+		ev.getCircle2().setTranslateX(controlPoints[2]);
+		ev.getCircle2().setTranslateY(controlPoints[3]);
+		var label = attributes.label();
+		if (label != null)
+			networkView.addLabel(e, label.text(), label.dx(), label.dy());
 	}
 
 	public static void view2model(NetworkView view, NetworkModel model) {
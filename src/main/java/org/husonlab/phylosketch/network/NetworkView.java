@@ -34,6 +34,7 @@ import jloda.graph.Node;
 import jloda.phylo.PhyloTree;
 import org.husonlab.phylosketch.DefaultOptions;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -43,16 +44,12 @@ import java.util.function.Consumer;
  * Daniel Huson, 10.2022
  */
 public class NetworkView {
-	private final Group edgePathGroup = new Group();
-	private final Group nodeShapeGroup = new Group();
-	private final Group edgeLabelGroup = new Group();
-	private final Group nodeLabelGroup = new Group();
+	private Group edgePathGroup;
+	private Group nodeShapeGroup;
+	private Group edgeLabelGroup;
+	private Group nodeLabelGroup;
 
-	private final Group edgeBelowWaterGroup = new Group();
-	private final Group nodeBelowWaterGroup = new Group();
-	private final Group labelBelowWaterGroup = new Group();
-
-	private final Group world = new Group(edgeBelowWaterGroup, labelBelowWaterGroup, nodeBelowWaterGroup, edgePathGroup, nodeShapeGroup, edgeLabelGroup, nodeLabelGroup);
+	private final Group world = new Group();
 
 	private final PhyloTree tree;
 	private final Map<Node, NodeView> nodeViewMap;
@@ -80,18 +77,49 @@ public class NetworkView {
 		nodeViewMap = new HashMap<>();
 		edgeViewMap = new HashMap<>();
 
+		world.getChildren().setAll(createGroups());
+
+		fontScale.addListener((c, o, n) -> {
+			for (var nodeView : nodeViewMap.values()) {
+				var label = nodeView.label();
+				if (label != null)
+					label.setScale(n.doubleValue());
+			}
+			for (var edgeView : edgeViewMap.values()) {
+				var label = edgeView.label();
+				if (label != null)
+					label.setScale(n.doubleValue());
+			}
+		});
+	}
+
+	/**
+	 * creates a new, empty set of groups, not yet attached to the world
+	 *
+	 * @return the groups, in drawing order
+	 */
+	private Group[] createGroups() {
+		edgePathGroup = new Group();
+		nodeShapeGroup = new Group();
+		edgeLabelGroup = new Group();
+		nodeLabelGroup = new Group();
+
+		var edgeBelowWater = new Group();
+		var nodeBelowWater = new Group();
+		var labelBelowWater = new Group();
+
 		edgePathGroup.getChildren().addListener((ListChangeListener<? super javafx.scene.Node>) c -> {
 			while (c.next()) {
 				for (var node : c.getRemoved()) {
 					if (node.getUserData() instanceof EdgeView) {
 						var edgeView = (EdgeView) node.getUserData();
-						edgeBelowWaterGroup.getChildren().remove(edgeView.curveBelow());
+						edgeBelowWater.getChildren().remove(edgeView.curveBelow());
 					}
 				}
 				for (var node : c.getAddedSubList()) {
 					if (node.getUserData() instanceof EdgeView) {
 						var edgeView = (EdgeView) node.getUserData();
-						edgeBelowWaterGroup.getChildren().add(edgeView.curveBelow());
+						edgeBelowWater.getChildren().add(edgeView.curveBelow());
 					}
 				}
 			}
@@ -102,13 +130,13 @@ public class NetworkView {
 				for (var node : c.getRemoved()) {
 					if (node.getUserData() instanceof NodeView) {
 						var nodeView = (NodeView) node.getUserData();
-						nodeBelowWaterGroup.getChildren().remove(nodeView.shapeBelow());
+						nodeBelowWater.getChildren().remove(nodeView.shapeBelow());
 					}
 				}
 				for (var node : c.getAddedSubList()) {
 					if (node.getUserData() instanceof NodeView) {
 						var nodeView = (NodeView) node.getUserData();
-						nodeBelowWaterGroup.getChildren().add(nodeView.shapeBelow());
+						nodeBelowWater.getChildren().add(nodeView.shapeBelow());
 					}
 				}
 			}
@@ -119,39 +147,55 @@ public class NetworkView {
 				for (var node : c.getRemoved()) {
 					if (node.getUserData() instanceof NodeView) {
 						var nodeView = (NodeView) node.getUserData();
-						labelBelowWaterGroup.getChildren().remove(nodeView.labelShapeBelow());
+						labelBelowWater.getChildren().remove(nodeView.labelShapeBelow());
 					}
 				}
 				for (var node : c.getAddedSubList()) {
 					if (node instanceof RichTextLabel) {
 						if (node.getUserData() instanceof NodeView) {
 							var nodeView = (NodeView) node.getUserData();
-							labelBelowWaterGroup.getChildren().add(nodeView.labelShapeBelow());
+							labelBelowWater.getChildren().add(nodeView.labelShapeBelow());
 						}
 					}
 				}
 			}
 		});
 
-		fontScale.addListener((c, o, n) -> {
-			for (var v : document.getModel().getTree().nodes()) {
-				var label = document.getNetworkView().getView(v).label();
-				label.setScale(n.doubleValue());
-			}
-			for (var e : document.getModel().getTree().edges()) {
-				var label = document.getNetworkView().getView(e).label();
-				if (label != null)
-					label.setScale(n.doubleValue());
-			}
-		});
+		return new Group[]{edgeBelowWater, labelBelowWater, nodeBelowWater, edgePathGroup, nodeShapeGroup, edgeLabelGroup, nodeLabelGroup};
 	}
 
-	public void clear() {
+	/**
+	 * starts building a new view. All node and edge views are removed and new ones are added to groups that are not yet part of the scene,
+	 * so that building the view does not trigger any updates of the scene. Call {@link #finishRebuild(Group[])} to show the new view
+	 *
+	 * @return the new groups
+	 */
+	public Group[] startRebuild() {
 		nodeViewMap.clear();
 		edgeViewMap.clear();
-		for (var group : BasicFX.getAllRecursively(world, Group.class)) {
-			for (var node : BasicFX.getAllRecursively(group, n -> !(n instanceof Group)))
-				group.getChildren().remove(node);
+		return createGroups();
+	}
+
+	/**
+	 * replaces the content of the world by the given groups, in one step
+	 *
+	 * @param groups the groups returned by {@link #startRebuild()}
+	 */
+	public void finishRebuild(Group[] groups) {
+		world.getChildren().setAll(groups);
+	}
+
+	/**
+	 * removes the views of all nodes and edges that are no longer part of the tree
+	 */
+	public void removeObsoleteViews() {
+		for (var v : new ArrayList<>(nodeViewMap.keySet())) {
+			if (v.getOwner() != tree)
+				removeView(v);
+		}
+		for (var e : new ArrayList<>(edgeViewMap.keySet())) {
+			if (e.getOwner() != tree)
+				removeView(e);
 		}
 	}
 
@@ -210,6 +254,19 @@ public class NetworkView {
 		setView(v, null);
 	}
 
+	/**
+	 * gets the vertical position of each labeled node currently shown, by label. This is also available after the tree has been
+	 * replaced, until the view is rebuilt
+	 */
+	public Map<String, Double> getLabelPositions() {
+		var map = new HashMap<String, Double>();
+		for (var nodeView : nodeViewMap.values()) {
+			if (nodeView.shape() != null && nodeView.label() != null && nodeView.label().getText() != null && !nodeView.label().getText().isBlank())
+				map.putIfAbsent(nodeView.label().getText(), nodeView.shape().getTranslateY());
+		}
+		return map;
+	}
+
 	public EdgeView getView(Edge e) {
 		return edgeViewMap.get(e);
 	}
@@ -284,10 +341,10 @@ public class NetworkView {
 
 
 	public Node findNodeIfHit(double xScreen, double yScreen) {
-		for (var v : tree.nodes()) {
-			final var shapeBelow = getView(v).shapeBelow();
+		for (var entry : nodeViewMap.entrySet()) {
+			final var shapeBelow = entry.getValue().shapeBelow();
 			if (shapeBelow.contains(shapeBelow.screenToLocal(xScreen, yScreen)))
-				return v;
+				return entry.getKey();
 		}
 		return null;
 	}
@@ -311,13 +368,13 @@ public class NetworkView {
 			throw new IllegalArgumentException();
 		this.xScale *= xFactor;
 		this.yScale *= yFactor;
-		for (var v : tree.nodes()) {
-			var shape = getView(v).shape();
+		for (var nodeView : nodeViewMap.values()) {
+			var shape = nodeView.shape();
 			shape.setTranslateX(shape.getTranslateX() * xFactor);
 			shape.setTranslateY(shape.getTranslateY() * yFactor);
 		}
-		for (var e : tree.edges()) {
-			final CubicCurve cubicCurve = getView(e).curve();
+		for (var edgeView : edgeViewMap.values()) {
+			final CubicCurve cubicCurve = edgeView.curve();
 			cubicCurve.setControlX1(xFactor * cubicCurve.getControlX1());
 			cubicCurve.setControlY1(yFactor * cubicCurve.getControlY1());
 			cubicCurve.setControlX2(xFactor * cubicCurve.getControlX2());
@@ -330,13 +387,13 @@ public class NetworkView {
 	}
 
 	public void resetScale() {
-		for (var v : tree.nodes()) {
-			var shape = getView(v).shape();
+		for (var nodeView : nodeViewMap.values()) {
+			var shape = nodeView.shape();
 			shape.setTranslateX(shape.getTranslateX() / xScale);
 			shape.setTranslateY(shape.getTranslateY() / yScale);
 		}
-		for (var e : tree.edges()) {
-			final CubicCurve cubicCurve = getView(e).curve();
+		for (var edgeView : edgeViewMap.values()) {
+			final CubicCurve cubicCurve = edgeView.curve();
 			cubicCurve.setControlX1(cubicCurve.getControlX1() / xScale);
 			cubicCurve.setControlY1(cubicCurve.getControlY1() / yScale);
 			cubicCurve.setControlX2(cubicCurve.getControlX2() / xScale);
@@ -367,8 +424,8 @@ public class NetworkView {
 		var maxX = Double.MIN_VALUE;
 		var minY = Double.MAX_VALUE;
 		var maxY = Double.MIN_VALUE;
-		for (var v : tree.nodes()) {
-			var shape = getView(v).shape();
+		for (var nodeView : nodeViewMap.values()) {
+			var shape = nodeView.shape();
 			if (shape != null) {
 				minX = Math.min(minX, shape.getTranslateX());
 				maxX = Math.max(maxX, shape.getTranslateX());
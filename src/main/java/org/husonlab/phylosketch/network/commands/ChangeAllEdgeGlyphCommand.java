@@ -76,6 +76,8 @@ public class ChangeAllEdgeGlyphCommand extends UndoableRedoableCommand {
 		var transitions = new ArrayList<Transition>();
 		for (var e : document.getModel().getTree().edges()) {
 			var ev = document.getNetworkView().getView(e);
+			if (ev == null)
+				continue; // the view is still being computed and will use the new glyph
 			var coordinates = document.getNetworkView().computeControlPoints(e, glyph);
 			{
 				var translate = new TranslateTransition(Duration.seconds(0.5));
@@ -26,6 +26,7 @@ import jloda.graph.Node;
 import jloda.phylo.PhyloTree;
 import org.husonlab.phylosketch.network.Document;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -64,31 +65,39 @@ public class DeleteSubTreeCommand extends UndoableRedoableCommand {
 			undo = () -> {
 				document.getModel().getTree().copy(oldTree);
 				document.setToScale(oldToScale);
-				document.updateModelAndView();
-				for (var w : document.getModel().getTree().nodes()) {
-					if (nodeTranslate.containsKey(w.getId())) {
-						var location = nodeTranslate.get(w.getId());
-						var shape = document.getNetworkView().getView(w).shape();
-						shape.setTranslateX(location.getX());
-						shape.setTranslateY(location.getY());
-						var offset = nodeLabelLayout.get(w.getId());
-						var label = document.getNetworkView().getView(w).label();
-						label.setLayoutX(offset.getX());
-						label.setLayoutY(offset.getY());
+				document.updateModelAndView(() -> {
+					for (var w : document.getModel().getTree().nodes()) {
+						if (nodeTranslate.containsKey(w.getId())) {
+							var location = nodeTranslate.get(w.getId());
+							var shape = document.getNetworkView().getView(w).shape();
+							shape.setTranslateX(location.getX());
+							shape.setTranslateY(location.getY());
+							var offset = nodeLabelLayout.get(w.getId());
+							var label = document.getNetworkView().getView(w).label();
+							label.setLayoutX(offset.getX());
+							label.setLayoutY(offset.getY());
+						}
 					}
-				}
-				ChangeAllEdgeGlyphCommand.changeEdgeShape(document, document.getEdgeGlyph());
+					ChangeAllEdgeGlyphCommand.changeEdgeShape(document, document.getEdgeGlyph());
+				});
 			};
 
 			var vid = v.getId();
 
 			redo = () -> {
 				var tree = document.getModel().getTree();
+				var changed = new ArrayList<Node>();
 				try (var allBelow = tree.newNodeSet()) {
 					tree.preorderTraversal(tree.findNodeById(vid), allBelow::add);
+					for (var w : allBelow) {
+						for (var u : w.parents()) {
+							if (!allBelow.contains(u) && !changed.contains(u))
+								changed.add(u);
+						}
+					}
 					allBelow.forEach(tree::deleteNode);
 				}
-				document.updateModelAndView();
+				document.updateModelAndViewIncrementally(changed);
 			};
 		}
 	}
@@ -66,37 +66,39 @@ public class ReplaceNetworkCommand extends UndoableRedoableCommand {
 			undo = () -> {
 				document.getModel().getTree().copy(oldTree);
 				document.setToScale(oldToScale);
-				document.updateModelAndView();
-				for (var v : document.getModel().getTree().nodes()) {
-					if (nodeTranslate.containsKey(v.getId())) {
-						var location = nodeTranslate.get(v.getId());
-						var shape = document.getNetworkView().getView(v).shape();
-						shape.setTranslateX(location.getX());
-						shape.setTranslateY(location.getY());
-						var offset = nodeLabelLayout.get(v.getId());
-						var label = document.getNetworkView().getView(v).label();
-						label.setLayoutX(offset.getX());
-						label.setLayoutY(offset.getY());
+				document.updateModelAndView(() -> {
+					for (var v : document.getModel().getTree().nodes()) {
+						if (nodeTranslate.containsKey(v.getId())) {
+							var location = nodeTranslate.get(v.getId());
+							var shape = document.getNetworkView().getView(v).shape();
+							shape.setTranslateX(location.getX());
+							shape.setTranslateY(location.getY());
+							var offset = nodeLabelLayout.get(v.getId());
+							var label = document.getNetworkView().getView(v).label();
+							label.setLayoutX(offset.getX());
+							label.setLayoutY(offset.getY());
+						}
 					}
-				}
-				ChangeAllEdgeGlyphCommand.changeEdgeShape(document, document.getEdgeGlyph());
+					ChangeAllEdgeGlyphCommand.changeEdgeShape(document, document.getEdgeGlyph());
+				});
 			};
 
 			redo = () -> {
 				document.getModel().getTree().clear();
 				document.getModel().getTree().copy(newTree);
 				document.setToScale(newToScale);
-				document.updateModelAndView();
-				if (document.getNetworkView().getFontScale() != 1.0) {
-					for (var v : document.getModel().getTree().nodes()) {
-						var label = document.getNetworkView().getView(v).label();
-						if (label != null) {
-							var diff = 0.5 * (document.getNetworkView().getFontScale() - 1) * label.getFontSize();
-							label.setLayoutY(label.getLayoutY() - diff);
+				document.updateModelAndView(() -> {
+					if (document.getNetworkView().getFontScale() != 1.0) {
+						for (var v : document.getModel().getTree().nodes()) {
+							var label = document.getNetworkView().getView(v).label();
+							if (label != null) {
+								var diff = 0.5 * (document.getNetworkView().getFontScale() - 1) * label.getFontSize();
+								label.setLayoutY(label.getLayoutY() - diff);
+							}
 						}
 					}
-				}
-				ChangeAllEdgeGlyphCommand.changeEdgeShape(document, document.getEdgeGlyph());
+					ChangeAllEdgeGlyphCommand.changeEdgeShape(document, document.getEdgeGlyph());
+				});
 			};
 		} catch (IOException ignored) {
 		}
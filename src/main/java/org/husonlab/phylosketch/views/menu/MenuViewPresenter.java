@@ -51,6 +51,8 @@ public class MenuViewPresenter {
 
 		var document = primaryView.getDocument();
 		var undoManager = document.getUndoManager();
+		// items that read the views of nodes and edges are disabled while the embedding is computed, as the views are only rebuilt afterwards:
+		var updating = document.getEmbeddingService().runningProperty();
 
 		primaryView.getStage().setTitle("PhyloSketch-App");
 
@@ -93,7 +95,7 @@ public class MenuViewPresenter {
 						}));
 			}
 		});
-		controller.getCutMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()));
+		controller.getCutMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()).or(updating));
 
 		controller.getCopyMenuItem().setOnAction(e -> {
 			if (document.getNodeSelection().size() > 0) {
@@ -130,10 +132,10 @@ public class MenuViewPresenter {
 					undoManager.doAndAdd(new DeleteSubTreeCommand(document, v));
 			}
 		});
-		controller.getDeleteMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()));
+		controller.getDeleteMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()).or(updating));
 
 		controller.getDeleteLabelsMenuItem().setOnAction(a -> undoManager.doAndAdd(new DeleteLabelsCommand(document, document.getNodeSelection().getSelectedItems())));
-		controller.getDeleteLabelsMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()));
+		controller.getDeleteLabelsMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()).or(updating));
 
 
 		// not implemented:
@@ -255,34 +257,34 @@ public class MenuViewPresenter {
 		// labeling menu items:
 
 		controller.getLabelLeavesABCMenuItem().setOnAction(c -> undoManager.doAndAdd(new ChangeNodeLabelsCommand(document, LabelLeaves.labelLeavesABC(document))));
-		controller.getLabelLeavesABCMenuItem().disableProperty().bind(document.getGraphFX().emptyProperty());
+		controller.getLabelLeavesABCMenuItem().disableProperty().bind(document.getGraphFX().emptyProperty().or(updating));
 
 		controller.getLabelLeaves123MenuItem().setOnAction(c -> undoManager.doAndAdd(new ChangeNodeLabelsCommand(document, LabelLeaves.labelLeaves123(document))));
-		controller.getLabelLeaves123MenuItem().disableProperty().bind(document.getGraphFX().emptyProperty());
+		controller.getLabelLeaves123MenuItem().disableProperty().bind(document.getGraphFX().emptyProperty().or(updating));
 
 		controller.getLabelLeavesMenuItem().setOnAction(c -> LabelLeaves.labelLeaves(primaryView.getStage(), document));
-		controller.getLabelLeavesMenuItem().disableProperty().bind(document.getGraphFX().emptyProperty());
+		controller.getLabelLeavesMenuItem().disableProperty().bind(document.getGraphFX().emptyProperty().or(updating));
 
 		controller.getLabelInternalABCMenuItem().setOnAction(c -> undoManager.doAndAdd(new ChangeNodeLabelsCommand(document, LabelLeaves.labelInternalABC(document))));
-		controller.getLabelInternalABCMenuItem().disableProperty().bind(document.getGraphFX().emptyProperty());
+		controller.getLabelInternalABCMenuItem().disableProperty().bind(document.getGraphFX().emptyProperty().or(updating));
 
 		controller.getLabelInternal123MenuItem().setOnAction(c -> undoManager.doAndAdd(new ChangeNodeLabelsCommand(document, LabelLeaves.labelInternal123(document))));
-		controller.getLabelInternal123MenuItem().disableProperty().bind(document.getGraphFX().emptyProperty());
+		controller.getLabelInternal123MenuItem().disableProperty().bind(document.getGraphFX().emptyProperty().or(updating));
 
 		// other options:
 
 		controller.getRemoveDiNodesMenuItem().setOnAction(c -> undoManager.doAndAdd(new RemoveDiNodesCommand(document, document.getNodeSelection().getSelectedItems())));
-		controller.getRemoveDiNodesMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()));
+		controller.getRemoveDiNodesMenuItem().disableProperty().bind(Bindings.isEmpty(document.getNodeSelection().getSelectedItems()).or(updating));
 
 		controller.getAddDiNodesMenuItem().setOnAction(c -> undoManager.doAndAdd(SplitEdgeCommand.createAddDiNodesCommand(document, document.getEdgeSelection().getSelectedItems())));
-		controller.getAddDiNodesMenuItem().disableProperty().bind(Bindings.isEmpty(document.getEdgeSelection().getSelectedItems()));
+		controller.getAddDiNodesMenuItem().disableProperty().bind(Bindings.isEmpty(document.getEdgeSelection().getSelectedItems()).or(updating));
 
 		controller.getStraightEdgesMenuItem().setOnAction(a -> primaryView.getController().getStraightEdgesRadioMenuItem().setSelected(true));
 		controller.getRectangularEdgesMenuItem().setOnAction(a -> primaryView.getController().getRectangularEdgesRadioMenuItem().setSelected(true));
 		controller.getCubicEdgesMenuItem().setOnAction(a -> primaryView.getController().getRoundEdgesRadioMenuItem().setSelected(true));
 
 		controller.getNormalizationMenuItem().setOnAction(c -> undoManager.doAndAdd(new NormalizeCommand(document)));
-		controller.getNormalizationMenuItem().disableProperty().bind(isLeafLabeledDag.not());
+		controller.getNormalizationMenuItem().disableProperty().bind(isLeafLabeledDag.not().or(updating));
 
 		controller.getUseDarkThemeCheckMenuItem().setDisable(true);
 
@@ -30,10 +30,15 @@ import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.*;
+import javafx.geometry.Pos;
 import javafx.scene.Cursor;
 import javafx.scene.Node;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.input.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 import javafx.scene.text.Font;
@@ -331,6 +336,7 @@ public class PrimaryPresenter {
 		controller.getShowHTMLToggleButton().setDisable(true);
 
 		document.getGraphFX().lastUpdateProperty().addListener(updateNewickString);
+		document.modelAndViewUpdatedProperty().addListener(updateNewickString); // weights may be taken from the new view
 
 		newickText.set(document.getNewickString());
 		newickText.addListener(a -> inputChanged.set(true));
@@ -506,6 +512,22 @@ public class PrimaryPresenter {
 
 		interactionMode.addListener(a -> controller.getStackPane().getChildren().remove(infoChip));
 
+		var embeddingService = document.getEmbeddingService();
+		var progressIndicator = new ProgressIndicator();
+		progressIndicator.setMaxSize(32, 32);
+		progressIndicator.progressProperty().bind(embeddingService.progressProperty());
+		var cancelButton = MaterialDesignIcon.CANCEL.button(a -> embeddingService.cancel());
+		var progressBox = new HBox(5, progressIndicator, cancelButton);
+		progressBox.setAlignment(Pos.CENTER_RIGHT);
+		progressBox.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+		StackPane.setAlignment(progressBox, Pos.TOP_RIGHT);
+		embeddingService.runningProperty().addListener((v, o, n) -> {
+			if (n)
+				controller.getStackPane().getChildren().add(progressBox);
+			else
+				controller.getStackPane().getChildren().remove(progressBox);
+		});
+
 		view.getView().focusedProperty().addListener((v, o, n) -> {
 			if (!n)
 				controller.getStackPane().getChildren().remove(infoChip);
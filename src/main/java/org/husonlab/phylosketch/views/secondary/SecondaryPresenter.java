@@ -38,6 +38,7 @@ import jloda.fx.util.ProgramExecutorService;
 import jloda.fx.util.ProgramProperties;
 import org.husonlab.phylosketch.DefaultOptions;
 import org.husonlab.phylosketch.Main;
+import org.husonlab.phylosketch.algorithms.embedding.EmbeddingStrategy;
 import org.husonlab.phylosketch.network.Document;
 import org.husonlab.phylosketch.network.NetworkModel;
 import org.husonlab.phylosketch.network.commands.ChangeAllEdgeGlyphCommand;
@@ -47,6 +48,7 @@ import org.husonlab.phylosketch.views.primary.PrimaryView;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * settings presenter
@@ -120,7 +122,7 @@ public class SecondaryPresenter {
 		controller.getSettingsPane().getOptions().add(nodeFillOption);
 		nodeFillOption.valueProperty().bindBidirectional(DefaultOptions.nodeFillProperty());
 		nodeFillOption.valueProperty().addListener((v, o, n) -> {
-			document.getModel().getTree().nodeStream().forEach(a -> document.getNetworkView().getView(a).shape().setFill(n));
+			document.getModel().getTree().nodeStream().map(a -> document.getNetworkView().getView(a)).filter(Objects::nonNull).forEach(a -> a.shape().setFill(n));
 		});
 
 		var nodeStrokeOption = new DefaultOption<>(MaterialDesignIcon.COLOR_LENS.graphic(),
@@ -128,7 +130,7 @@ public class SecondaryPresenter {
 		controller.getSettingsPane().getOptions().add(nodeStrokeOption);
 		nodeStrokeOption.valueProperty().bindBidirectional(DefaultOptions.nodeStrokeProperty());
 		nodeStrokeOption.valueProperty().addListener((v, o, n) -> {
-			document.getModel().getTree().nodeStream().forEach(a -> document.getNetworkView().getView(a).shape().setStroke(n));
+			document.getModel().getTree().nodeStream().map(a -> document.getNetworkView().getView(a)).filter(Objects::nonNull).forEach(a -> a.shape().setStroke(n));
 		});
 
 		var nodeSizeOption = new DefaultOption<>(MaterialDesignIcon.CROP_FREE.graphic(),
@@ -140,7 +142,7 @@ public class SecondaryPresenter {
 			if (n <= 0)
 				Platform.runLater(() -> nodeSizeOption.valueProperty().setValue(2.0));
 			else {
-				document.getModel().getTree().nodeStream().map(a -> document.getNetworkView().getView(a).shape()).filter(s -> s instanceof ISized)
+				document.getModel().getTree().nodeStream().map(a -> document.getNetworkView().getView(a)).filter(Objects::nonNull).map(a -> a.shape()).filter(s -> s instanceof ISized)
 						.forEach(s -> ((ISized) s).setSize(n, n));
 			}
 			System.err.println("Default node size: " + n);
@@ -164,7 +166,7 @@ public class SecondaryPresenter {
 		controller.getSettingsPane().getOptions().add(edgeColorOption);
 		edgeColorOption.valueProperty().bindBidirectional(DefaultOptions.edgeColorProperty());
 		edgeColorOption.valueProperty().addListener((v, o, n) -> {
-			document.getModel().getTree().edgeStream().forEach(a -> document.getNetworkView().getView(a).setStroke(n));
+			document.getModel().getTree().edgeStream().map(a -> document.getNetworkView().getView(a)).filter(Objects::nonNull).forEach(a -> a.setStroke(n));
 		});
 
 		var reticulateEdgeOption = new DefaultOption<>(MaterialDesignIcon.COLOR_LENS.graphic(),
@@ -174,7 +176,7 @@ public class SecondaryPresenter {
 		reticulateEdgeOption.valueProperty().addListener((v, o, n) -> {
 			var tree = document.getModel().getTree();
 			for (var e : tree.edges()) {
-				if (tree.isReticulateEdge(e) && !tree.isTransferAcceptorEdge(e))
+				if (tree.isReticulateEdge(e) && !tree.isTransferAcceptorEdge(e) && document.getNetworkView().getView(e) != null)
 					document.getNetworkView().getView(e).setStroke(n);
 			}
 		});
@@ -188,12 +190,39 @@ public class SecondaryPresenter {
 			if (n <= 0) {
 				Platform.runLater(() -> edgeWidthOption.valueProperty().setValue(1.0));
 			} else {
-				document.getModel().getTree().edgeStream().forEach(a -> document.getNetworkView().getView(a).setStrokeWidth(n));
+				document.getModel().getTree().edgeStream().map(a -> document.getNetworkView().getView(a)).filter(Objects::nonNull).forEach(a -> a.setStrokeWidth(n));
 
 			}
 			System.err.println("Default line width: " + n);
 		});
 
+		// layout:
+
+		var timeBudgetOption = new DefaultOption<>(MaterialDesignIcon.TIMER.graphic(),
+				"Time Budget", "Set the maximum number of seconds used to optimize the layout of a network (0 for no limit)", "Layout", DefaultOptions.getEmbeddingTimeBudget(), true);
+		controller.getSettingsPane().getOptions().add(timeBudgetOption);
+		DefaultOptions.bindBidirectional(timeBudgetOption.valueProperty(), DefaultOptions.embeddingTimeBudgetProperty());
+
+		timeBudgetOption.valueProperty().addListener((v, o, n) -> {
+			if (n < 0)
+				Platform.runLater(() -> timeBudgetOption.valueProperty().setValue(10));
+		});
+
+		var strategyOption = new DefaultOption<>(MaterialDesignIcon.TUNE.graphic(),
+				"Optimizer", "Set the strategy used to optimize the layout of a network, or choose it automatically from the size of the network", "Layout", DefaultOptions.getEmbeddingStrategy(), true, EmbeddingStrategyEditor::new);
+		controller.getSettingsPane().getOptions().add(strategyOption);
+		strategyOption.valueProperty().bindBidirectional(DefaultOptions.embeddingStrategyProperty());
+
+		var warmStartOption = new DefaultOption<>(MaterialDesignIcon.SWAP_VERT.graphic(),
+				"Keep Layout", "When the network is replaced, keep the current order of the leaves and only refine it, rather than computing a new layout", "Layout", DefaultOptions.isEmbeddingWarmStart(), true);
+		controller.getSettingsPane().getOptions().add(warmStartOption);
+		warmStartOption.valueProperty().bindBidirectional(DefaultOptions.embeddingWarmStartProperty());
+
+		var cacheLayoutsOption = new DefaultOption<>(MaterialDesignIcon.SAVE.graphic(),
+				"Cache Layouts on Disk", "Keep computed layouts on disk, so that previously seen networks are drawn without delay after a restart", "Layout", DefaultOptions.isCacheLayoutsOnDisk(), true);
+		controller.getSettingsPane().getOptions().add(cacheLayoutsOption);
+		cacheLayoutsOption.valueProperty().bindBidirectional(DefaultOptions.cacheLayoutsOnDiskProperty());
+
 		// app preferences:
 		var swatchOption = new DefaultOption<>(MaterialDesignIcon.COLOR_LENS.graphic(),
 				"App color", "Set the app color", "App", DefaultOptions.getSwatch(), true);
@@ -237,6 +266,12 @@ public class SecondaryPresenter {
 		}
 	}
 
+	public static class EmbeddingStrategyEditor extends ChoiceBoxEditor<EmbeddingStrategy> {
+		public EmbeddingStrategyEditor(Option<EmbeddingStrategy> option) {
+			super(option, List.of(EmbeddingStrategy.values()));
+		}
+	}
+
 	public static class ChoiceBoxEditor<T> implements OptionEditor<T> {
 		private final ChoiceBox<T> choiceBox = new ChoiceBox<T>();
 